@@ -21,24 +21,39 @@ import org.objectweb.asm.tree.MethodNode;
 
 public class AccessTransformer {
 
-	public static ClassCollection remap(ClassCollection cc, Collection<ClassCollection> refs, IProgressListener progress) {
+	public static ClassCollection remap(ClassCollection cc, Collection<? extends IReferenceCollection> refs, IProgressListener progress) {
+		return transform(cc, refs, progress, false);
+	}
+
+	/**
+	 * Changes the access of the given classes directly, instead of copying them first.
+	 */
+	public static ClassCollection remapInPlace(ClassCollection cc, Collection<? extends IReferenceCollection> refs, IProgressListener progress) {
+		return transform(cc, refs, progress, true);
+	}
+
+	private static ClassCollection transform(ClassCollection cc, Collection<? extends IReferenceCollection> refs, IProgressListener progress, boolean inPlace) {
 
 		if(classAccess.isEmpty() && fieldAccess.isEmpty() && methodAccess.isEmpty()) {
 			return cc;
 		}
 
-		HashMap<String, ClassNode> refClasses = new HashMap<>();
+		HashMap<String, ClassSkeleton> refClasses = new HashMap<>();
 
-		for(ClassCollection refcc : refs) {
-			for(ClassNode cn : refcc.getAllClasses()) {
+		for(IReferenceCollection refcc : refs) {
+			for(ClassSkeleton cn : refcc.getSkeletons()) {
 				refClasses.put(cn.name, cn);
 			}
 		}
-		for(ClassNode cn : cc.getAllClasses()) {
+		for(ClassSkeleton cn : cc.getSkeletons()) {
 			refClasses.put(cn.name, cn);
 		}
 
-		cc = cc.clone();
+		ClassHierarchy hierarchy = new ClassHierarchy(refClasses.values());
+
+		if(!inPlace) {
+			cc = cc.clone();
+		}
 
 		int classesProcessed = 0;
 
@@ -80,17 +95,14 @@ public class AccessTransformer {
 			for(MethodNode mn : (List<MethodNode>)cn.methods) {
 
 				int access = mn.access;
-				for(String owner = cn.name; owner != null;) {
-					m = methodAccess.get(owner + '/' + mn.name + mn.desc);
-					if(m != null) {
-						access = m.getFixedAccess(access);
-					}
-					m = methodAccess.get(owner + "/*()V");
-					if(m != null) {
-						access = m.getFixedAccess(access);
-					}
-					ClassNode clazz = refClasses.get(owner);
-					owner = clazz.superName;
+				int[] superclasses = hierarchy.getSuperclasses(hierarchy.getId(cn.name));
+				for(int superclass : superclasses) {
+					access = getMethodAccess(hierarchy.getName(superclass), mn, access);
+				}
+				// the first superclass outside of the hierarchy (usually java/lang/Object) can still have rules
+				String owner = hierarchy.getSuperName(superclasses[superclasses.length - 1]);
+				if(owner != null) {
+					access = getMethodAccess(owner, mn, access);
 				}
 				mn.access = access;
 			}
@@ -100,6 +112,18 @@ public class AccessTransformer {
 
 	}
 
+	private static int getMethodAccess(String owner, MethodNode mn, int access) {
+		Modifier m = methodAccess.get(owner + '/' + mn.name + mn.desc);
+		if(m != null) {
+			access = m.getFixedAccess(access);
+		}
+		m = methodAccess.get(owner + "/*()V");
+		if(m != null) {
+			access = m.getFixedAccess(access);
+		}
+		return access;
+	}
+
 	private static HashMap<String, Modifier> classAccess = new HashMap<String, Modifier>();
 	private static HashMap<String, Modifier> fieldAccess = new HashMap<String, Modifier>();
 	private static HashMap<String, Modifier> methodAccess = new HashMap<String, Modifier>();
@@ -0,0 +1,160 @@
+package immibis.bon;
+
+import java.util.Arrays;
+
+/**
+ * One relation between two name sets, like obf <-> SRG fields, stored once and looked up from both sides.
+ * Each entry is a pair of keys packed with {@link SymbolTable#key}. Both sides index the same entry arrays,
+ * and each side is a {@link LongIntMap} view for one direction of the mapping: looking up the key of one side
+ * gives the class (for class entries) or the name (for members) in the key of the other side.
+ *
+ * A key that is added again replaces the older entry on its own side only, just like setting the entry
+ * on two separate mappings would. Like LongIntHashMap, it can be read by several threads as long as nobody writes to it.
+ */
+class BidiTable {
+
+	private long[] leftKeys = new long[16], rightKeys = new long[16];
+	private int size;
+
+	private final boolean members;
+	final Side left, right;
+
+	/**
+	 * @param members Whether the keys are member keys, whose mapped value is the name part of the other key
+	 */
+	BidiTable(boolean members) {
+		this.members = members;
+		left = new Side(true);
+		right = new Side(false);
+	}
+
+	public void put(long leftKey, long rightKey) {
+		if(size == leftKeys.length) {
+			leftKeys = Arrays.copyOf(leftKeys, Math.max(16, size * 2));
+			rightKeys = Arrays.copyOf(rightKeys, Math.max(16, size * 2));
+		}
+		leftKeys[size] = leftKey;
+		rightKeys[size] = rightKey;
+		left.index(size);
+		right.index(size);
+		size++;
+	}
+
+	/**
+	 * Drops the unused end of the entry arrays, once no more entries will be added.
+	 */
+	public void trim() {
+		leftKeys = Arrays.copyOf(leftKeys, size);
+		rightKeys = Arrays.copyOf(rightKeys, size);
+	}
+
+	/**
+	 * Open addressing table of entry numbers, hashed by this side's key of the entry.
+	 */
+	class Side implements LongIntMap {
+		private final boolean isLeft;
+		private int[] entries = newEntries(16); // -1 marks an empty slot
+		private int count;
+
+		Side(boolean isLeft) {
+			this.isLeft = isLeft;
+		}
+
+		private long[] keys() {
+			return isLeft ? leftKeys : rightKeys;
+		}
+
+		private long[] otherKeys() {
+			return isLeft ? rightKeys : leftKeys;
+		}
+
+		private int value(int entry) {
+			long other = otherKeys()[entry];
+			return members ? SymbolTable.getKeyPart(other, 1) : (int)other;
+		}
+
+		@Override
+		public int get(long key) {
+			long[] keys = keys();
+			int[] entries = this.entries;
+			int mask = entries.length - 1;
+			for(int k = LongIntHashMap.hash(key) & mask;; k = (k + 1) & mask) {
+				int entry = entries[k];
+				if(entry < 0) {
+					return -1;
+				}
+				if(keys[entry] == key) {
+					return value(entry);
+				}
+			}
+		}
+
+		@Override
+		public void put(long key, int value) {
+			throw new UnsupportedOperationException("entries of a shared table are added to both sides at once");
+		}
+
+		void index(int entry) {
+			long[] keys = keys();
+			long key = keys[entry];
+			int mask = entries.length - 1;
+			for(int k = LongIntHashMap.hash(key) & mask;; k = (k + 1) & mask) {
+				if(entries[k] < 0) {
+					entries[k] = entry;
+					if(++count * 2 > entries.length) {
+						rehash();
+					}
+					return;
+				}
+				if(keys[entries[k]] == key) {
+					entries[k] = entry;
+					return;
+				}
+			}
+		}
+
+		private void rehash() {
+			long[] keys = keys();
+			int[] oldEntries = entries;
+			entries = newEntries(oldEntries.length * 2);
+			int mask = entries.length - 1;
+			for(int entry : oldEntries) {
+				if(entry >= 0) {
+					int k = LongIntHashMap.hash(keys[entry]) & mask;
+					while(entries[k] >= 0) {
+						k = (k + 1) & mask;
+					}
+					entries[k] = entry;
+				}
+			}
+		}
+
+		@Override
+		public int size() {
+			return count;
+		}
+
+		@Override
+		public long estimateSize() {
+			// each side counts its own half of the entry arrays
+			return entries.length * 4L + keys().length * 8L;
+		}
+
+		@Override
+		public void forEach(Visitor visitor) {
+			long[] keys = keys();
+			for(int entry : entries) {
+				if(entry >= 0) {
+					visitor.visit(keys[entry], value(entry));
+				}
+			}
+		}
+	}
+
+	private static int[] newEntries(int length) {
+		int[] rv = new int[length];
+		Arrays.fill(rv, -1);
+		return rv;
+	}
+
+}
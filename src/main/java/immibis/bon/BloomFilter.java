@@ -0,0 +1,59 @@
+package immibis.bon;
+
+/**
+ * A set of int hashes that can only answer "certainly not in the set" or "maybe in the set".
+ * About 10 bits are used per entry, which gives roughly 1% false positives with three probes.
+ * Like LongIntHashMap, it can be read by several threads as long as nobody writes to it.
+ */
+class BloomFilter {
+
+	private static final int PROBES = 3;
+
+	private final long[] bits;
+	private final int mask;
+
+	BloomFilter(int entries) {
+		int size = 64;
+		while(size < entries * 10L && size < (1 << 30)) {
+			size <<= 1;
+		}
+		bits = new long[size >>> 6];
+		mask = size - 1;
+	}
+
+	public void add(int hash) {
+		int h1 = mix(hash), h2 = mix(h1) | 1;
+		for(int k = 0; k < PROBES; k++, h1 += h2) {
+			int bit = h1 & mask;
+			bits[bit >>> 6] |= 1L << bit;
+		}
+	}
+
+	public boolean mightContain(int hash) {
+		int h1 = mix(hash), h2 = mix(h1) | 1;
+		for(int k = 0; k < PROBES; k++, h1 += h2) {
+			int bit = h1 & mask;
+			if((bits[bit >>> 6] & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public long estimateSize() {
+		return bits.length * 8L;
+	}
+
+	/**
+	 * Hash of a member key. Only uses the cached hash codes of the strings, so nothing is allocated.
+	 */
+	public static int hash(String clazz, String name) {
+		return (clazz == null ? 0 : clazz.hashCode()) * 31 + (name == null ? 0 : name.hashCode());
+	}
+
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+}
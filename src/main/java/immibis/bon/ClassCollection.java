@@ -2,13 +2,14 @@ package immibis.bon;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.jar.Manifest;
 
 import org.objectweb.asm.tree.ClassNode;
 
-public class ClassCollection implements Cloneable {
+public class ClassCollection implements Cloneable, IReferenceCollection {
 
 	public ClassCollection(NameSet nameSet, Collection<ClassNode> classes, Manifest manifest) {
 		this.nameSet = nameSet;
@@ -20,21 +21,46 @@ public class ClassCollection implements Cloneable {
 	private final Manifest manifest;
 	private Collection<ClassNode> classes = new ArrayList<ClassNode>();
 	private Map<String, byte[]> extraFiles = new HashMap<String, byte[]>();
+	private boolean transferred;
 
 	public Collection<ClassNode> getAllClasses() {
+		checkNotTransferred();
 		return classes;
 	}
 
+	@Override
 	public NameSet getNameSet() {
+		checkNotTransferred();
 		return nameSet;
 	}
 
+	/**
+	 * Builds the skeletons of the classes on every call, so they reflect any changes made since.
+	 */
+	@Override
+	public Collection<ClassSkeleton> getSkeletons() {
+		checkNotTransferred();
+		Collection<ClassSkeleton> rv = new ArrayList<ClassSkeleton>(classes.size());
+		for(ClassNode cn : classes) {
+			rv.add(ClassSkeleton.fromClassNode(cn));
+		}
+		return rv;
+	}
+
 	public Manifest getManifest() {
+		checkNotTransferred();
 		return manifest;
 	}
 
+	private void checkNotTransferred() {
+		if(transferred) {
+			throw new IllegalStateException("This ClassCollection was given up by transferWithNameSet and can't be used any more");
+		}
+	}
+
 	@Override
 	public ClassCollection clone() {
+		checkNotTransferred();
 		try {
 			ClassCollection clone = (ClassCollection)super.clone();
 			clone.classes = new ArrayList<ClassNode>();
@@ -62,7 +88,24 @@ public class ClassCollection implements Cloneable {
 		return rv;
 	}
 
+	/**
+	 * Like cloneWithNameSet, but moves the classes into the new collection instead of copying them.
+	 * This collection can't be used afterwards, so anything changed in the new one can't be seen through the old nameset.
+	 */
+	public ClassCollection transferWithNameSet(NameSet newNS) {
+		checkNotTransferred();
+		ClassCollection rv = new ClassCollection(newNS, Collections.<ClassNode>emptyList(), manifest);
+		rv.classes = classes;
+		rv.extraFiles = extraFiles;
+
+		transferred = true;
+		classes = null;
+		extraFiles = null;
+		return rv;
+	}
+
 	public Map<String, ClassNode> getClassMap() {
+		checkNotTransferred();
 		Map<String, ClassNode> rv = new HashMap<String, ClassNode>();
 		for(ClassNode cn : classes) {
 			rv.put(cn.name, cn);
@@ -71,6 +114,7 @@ public class ClassCollection implements Cloneable {
 	}
 
 	public Map<String, byte[]> getExtraFiles() {
+		checkNotTransferred();
 		return extraFiles;
 	}
 
@@ -0,0 +1,335 @@
+package immibis.bon;
+
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+
+/**
+ * Class hierarchy of all classes taking part in a remap, built once and then only read.
+ * Every class gets an int id (its position in the collection it was built from) and all
+ * tables are arrays indexed by that id, so walking the hierarchy never touches a map.
+ *
+ * Built from skeletons, which can't change, so the ClassNodes they were taken from may be changed afterwards.
+ */
+public class ClassHierarchy {
+
+	private static final int[] EMPTY = new int[0];
+
+	private final Map<String, Integer> ids;
+	private final String[] names;
+	private final String[] superNames;
+	private final int[] access;
+	private final int[] superclass; // id of the superclass, -1 if it is unknown
+	private final int[][] interfaces; // ids of the known direct interfaces, in declaration order
+	private final String[][] methods; // declared methods as name, desc, name, desc...
+	private final String[][] fields; // declared fields as name, desc, name, desc...
+
+	private final int[] topologicalOrder;
+	private final int[][] superclasses;
+	private final int[][] descendants;
+	private final AtomicReferenceArray<int[]> inheritedInterfaces;
+
+	public ClassHierarchy(Collection<ClassSkeleton> classes) {
+		int count = classes.size();
+
+		ids = new HashMap<>(count * 2);
+		names = new String[count];
+		superNames = new String[count];
+		access = new int[count];
+		superclass = new int[count];
+		interfaces = new int[count][];
+		methods = new String[count][];
+		fields = new String[count][];
+
+		int id = 0;
+		for(ClassSkeleton cn : classes) {
+			ids.put(cn.name, id);
+			names[id] = cn.name;
+			superNames[id] = cn.superName;
+			access[id] = cn.access;
+			methods[id] = cn.methods;
+			fields[id] = cn.fields;
+			id++;
+		}
+
+		id = 0;
+		for(ClassSkeleton cn : classes) {
+			superclass[id] = getId(cn.superName);
+			interfaces[id] = getIds(cn.interfaces);
+			id++;
+		}
+
+		topologicalOrder = sortTopologically();
+		superclasses = buildSuperclasses();
+		descendants = buildDescendants(classes);
+		inheritedInterfaces = new AtomicReferenceArray<>(count);
+	}
+
+	private int[] getIds(String[] classNames) {
+		if(classNames.length == 0) {
+			return EMPTY;
+		}
+
+		int[] rv = new int[classNames.length];
+		int count = 0;
+		for(String name : classNames) {
+			int id = getId(name);
+			if(id >= 0) {
+				rv[count++] = id;
+			}
+		}
+		return count == rv.length ? rv : Arrays.copyOf(rv, count);
+	}
+
+	/**
+	 * Orders classes so that known supertypes come before their subtypes.
+	 * Classes caught in an (invalid) inheritance cycle are appended at the end.
+	 */
+	private int[] sortTopologically() {
+		int count = names.length;
+		int[] pending = new int[count]; // number of known supertypes not yet placed
+		int[][] subtypes = new int[count][];
+		int[] subtypeCount = new int[count];
+
+		for(int id = 0; id < count; id++) {
+			if(superclass[id] >= 0) {
+				pending[id]++;
+				subtypeCount[superclass[id]]++;
+			}
+			for(int i : interfaces[id]) {
+				pending[id]++;
+				subtypeCount[i]++;
+			}
+		}
+		for(int id = 0; id < count; id++) {
+			subtypes[id] = new int[subtypeCount[id]];
+			subtypeCount[id] = 0;
+		}
+		for(int id = 0; id < count; id++) {
+			if(superclass[id] >= 0) {
+				subtypes[superclass[id]][subtypeCount[superclass[id]]++] = id;
+			}
+			for(int i : interfaces[id]) {
+				subtypes[i][subtypeCount[i]++] = id;
+			}
+		}
+
+		int[] order = new int[count];
+		boolean[] placed = new boolean[count];
+		int head = 0, tail = 0;
+		for(int id = 0; id < count; id++) {
+			if(pending[id] == 0) {
+				order[tail++] = id;
+				placed[id] = true;
+			}
+		}
+		while(head < tail) {
+			for(int sub : subtypes[order[head++]]) {
+				if(--pending[sub] == 0) {
+					order[tail++] = sub;
+					placed[sub] = true;
+				}
+			}
+		}
+		for(int id = 0; id < count && tail < count; id++) {
+			if(!placed[id]) {
+				order[tail++] = id;
+			}
+		}
+		return order;
+	}
+
+	private int[][] buildSuperclasses() {
+		int[][] rv = new int[names.length][];
+		for(int id : topologicalOrder) {
+			int parent = superclass[id];
+			if(parent < 0 || rv[parent] == null) {
+				rv[id] = new int[]{id};
+			} else {
+				rv[id] = new int[rv[parent].length + 1];
+				rv[id][0] = id;
+				System.arraycopy(rv[parent], 0, rv[id], 1, rv[parent].length);
+			}
+		}
+		return rv;
+	}
+
+	/**
+	 * Inheritors are the classes extending a class other than java/lang/Object, and the
+	 * interfaces extending an interface outside of java/. A class implementing an interface
+	 * is not an inheritor of it.
+	 */
+	private int[][] buildDescendants(Collection<ClassSkeleton> classes) {
+		int count = names.length;
+		List<List<Integer>> children = new ArrayList<>(count);
+		for(int id = 0; id < count; id++) {
+			children.add(new ArrayList<>(0));
+		}
+
+		int id = 0;
+		for(ClassSkeleton cn : classes) {
+			if(Modifier.isInterface(cn.access)) {
+				for(String parent : cn.interfaces) {
+					int parentId = getId(parent);
+					if(parentId >= 0 && !parent.startsWith("java/") && !children.get(parentId).contains(id)) {
+						children.get(parentId).add(id);
+					}
+				}
+			} else if(superclass[id] >= 0 && !cn.superName.equals("java/lang/Object")) {
+				children.get(superclass[id]).add(id);
+			}
+			id++;
+		}
+
+		// depth-first order: each child, then everything below it, keeping only the first occurrence
+		int[][] rv = new int[count][];
+		boolean[] seen = new boolean[count];
+		int[] buffer = new int[count];
+		for(int k = count - 1; k >= 0; k--) {
+			int parent = topologicalOrder[k];
+			int size = 0;
+			for(int child : children.get(parent)) {
+				if(rv[child] == null) {
+					continue; // inheritance cycle
+				}
+				if(!seen[child]) {
+					seen[child] = true;
+					buffer[size++] = child;
+				}
+				for(int d : rv[child]) {
+					if(!seen[d]) {
+						seen[d] = true;
+						buffer[size++] = d;
+					}
+				}
+			}
+			rv[parent] = size == 0 ? EMPTY : Arrays.copyOf(buffer, size);
+			for(int d : rv[parent]) {
+				seen[d] = false;
+			}
+		}
+		return rv;
+	}
+
+	/**
+	 * @return The id of the class, or -1 if it is not part of the hierarchy
+	 */
+	public int getId(String name) {
+		if(name == null) {
+			return -1;
+		}
+		Integer id = ids.get(name);
+		return id == null ? -1 : id;
+	}
+
+	public int size() {
+		return names.length;
+	}
+
+	public String getName(int id) {
+		return names[id];
+	}
+
+	/**
+	 * @return The declared superclass name, even if that class is not part of the hierarchy
+	 */
+	public String getSuperName(int id) {
+		return superNames[id];
+	}
+
+	public int getAccess(int id) {
+		return access[id];
+	}
+
+	public boolean isInterface(int id) {
+		return Modifier.isInterface(access[id]);
+	}
+
+	/**
+	 * @return Id of the superclass, or -1 if it is not part of the hierarchy
+	 */
+	public int getSuperclass(int id) {
+		return superclass[id];
+	}
+
+	public int[] getInterfaces(int id) {
+		return interfaces[id];
+	}
+
+	/**
+	 * @return The class itself followed by its known superclasses, nearest first
+	 */
+	public int[] getSuperclasses(int id) {
+		return superclasses[id];
+	}
+
+	/**
+	 * @return All direct and indirect inheritors of the class in depth-first order
+	 */
+	public int[] getDescendants(int id) {
+		return descendants[id];
+	}
+
+	/**
+	 * Interfaces (and their superinterfaces) implemented by the inheritors of a class.
+	 * Computed on first use, since it is only needed for methods that could not be resolved otherwise.
+	 */
+	public int[] getInheritedInterfaces(int id) {
+		int[] rv = inheritedInterfaces.get(id);
+		if(rv == null) {
+			boolean[] seen = new boolean[names.length];
+			int[] buffer = new int[names.length];
+			int size = 0;
+			for(int d : descendants[id]) {
+				size = addInterfaces(d, seen, buffer, size);
+			}
+			rv = size == 0 ? EMPTY : Arrays.copyOf(buffer, size);
+			inheritedInterfaces.compareAndSet(id, null, rv);
+		}
+		return rv;
+	}
+
+	private int addInterfaces(int id, boolean[] seen, int[] buffer, int size) {
+		for(int i : interfaces[id]) {
+			if(!seen[i]) {
+				seen[i] = true;
+				buffer[size++] = i;
+				if(isInterface(i)) {
+					size = addInterfaces(i, seen, buffer, size);
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return Class ids ordered so that supertypes always come before their subtypes
+	 */
+	public int[] getTopologicalOrder() {
+		return topologicalOrder;
+	}
+
+	public boolean declaresMethod(int id, String name, String desc) {
+		return declares(methods[id], name, desc);
+	}
+
+	public boolean declaresField(int id, String name, String desc) {
+		return declares(fields[id], name, desc);
+	}
+
+	private static boolean declares(String[] members, String name, String desc) {
+		for(int k = 0; k < members.length; k += 2) {
+			if(members[k].equals(name) && members[k + 1].equals(desc)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,168 @@
+package immibis.bon;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.MethodNode;
+
+/**
+ * The parts of a class needed to resolve references to it: its name, supertypes, access and
+ * the names and descriptors of its members. Used instead of a ClassNode for reference classes.
+ */
+public final class ClassSkeleton {
+
+	private static final String[] EMPTY = new String[0];
+
+	public static final int READ_FLAGS = ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES;
+
+	public final String name;
+	public final String superName;
+	public final int access;
+	public final String[] interfaces;
+	/** Declared methods as name, desc, name, desc... */
+	public final String[] methods;
+	/** Declared fields as name, desc, name, desc... */
+	public final String[] fields;
+
+	public ClassSkeleton(String name, String superName, int access, String[] interfaces, String[] methods, String[] fields) {
+		this.name = name;
+		this.superName = superName;
+		this.access = access;
+		this.interfaces = interfaces;
+		this.methods = methods;
+		this.fields = fields;
+	}
+
+	public int getMethodCount() {
+		return methods.length / 2;
+	}
+
+	public String getMethodName(int k) {
+		return methods[k * 2];
+	}
+
+	public String getMethodDesc(int k) {
+		return methods[k * 2 + 1];
+	}
+
+	public int getFieldCount() {
+		return fields.length / 2;
+	}
+
+	public String getFieldName(int k) {
+		return fields[k * 2];
+	}
+
+	public String getFieldDesc(int k) {
+		return fields[k * 2 + 1];
+	}
+
+	public static ClassSkeleton fromClassNode(ClassNode cn) {
+		String[] methods = new String[cn.methods.size() * 2];
+		int k = 0;
+		for(MethodNode mn : cn.methods) {
+			methods[k++] = mn.name;
+			methods[k++] = mn.desc;
+		}
+
+		String[] fields = new String[cn.fields.size() * 2];
+		k = 0;
+		for(FieldNode fn : cn.fields) {
+			fields[k++] = fn.name;
+			fields[k++] = fn.desc;
+		}
+
+		String[] interfaces = cn.interfaces == null || cn.interfaces.isEmpty() ? EMPTY : cn.interfaces.toArray(new String[cn.interfaces.size()]);
+		return new ClassSkeleton(cn.name, cn.superName, cn.access, interfaces, methods, fields);
+	}
+
+	/**
+	 * Reads a skeleton straight from a class file, skipping all code.
+	 *
+	 * @param strings Used to share equal strings (mostly descriptors) between classes. Can be null.
+	 */
+	public static ClassSkeleton read(byte[] bytes, Map<String, String> strings) throws ClassFormatException {
+		SkeletonReader reader = new SkeletonReader(strings);
+		try {
+			new ClassReader(bytes).accept(reader, READ_FLAGS);
+		} catch (RuntimeException e) {
+			throw new ClassFormatException("Unable to load class", e);
+		}
+		return new ClassSkeleton(reader.name, reader.superName, reader.access, reader.interfaces,
+				reader.methods.toArray(), reader.fields.toArray());
+	}
+
+	private static class SkeletonReader extends ClassVisitor {
+		private final Map<String, String> strings;
+
+		String name, superName;
+		int access;
+		String[] interfaces = EMPTY;
+		final StringList methods = new StringList();
+		final StringList fields = new StringList();
+
+		SkeletonReader(Map<String, String> strings) {
+			super(Opcodes.ASM5);
+			this.strings = strings;
+		}
+
+		private String intern(String s) {
+			if(s == null || strings == null) {
+				return s;
+			}
+			String rv = strings.putIfAbsent(s, s);
+			return rv == null ? s : rv;
+		}
+
+		@Override
+		public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+			this.name = intern(name);
+			this.superName = intern(superName);
+			this.access = access;
+			if(interfaces != null && interfaces.length > 0) {
+				this.interfaces = new String[interfaces.length];
+				for(int k = 0; k < interfaces.length; k++) {
+					this.interfaces[k] = intern(interfaces[k]);
+				}
+			}
+		}
+
+		@Override
+		public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+			fields.add(intern(name));
+			fields.add(intern(desc));
+			return null;
+		}
+
+		@Override
+		public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+			methods.add(intern(name));
+			methods.add(intern(desc));
+			return null;
+		}
+	}
+
+	private static class StringList {
+		private String[] data = new String[16];
+		private int size;
+
+		void add(String s) {
+			if(size == data.length) {
+				data = Arrays.copyOf(data, size * 2);
+			}
+			data[size++] = s;
+		}
+
+		String[] toArray() {
+			return size == 0 ? EMPTY : Arrays.copyOf(data, size);
+		}
+	}
+
+}
@@ -0,0 +1,163 @@
+package immibis.bon;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Same result as a {@link JoinMapping} of a and b, but the entries of both mappings are composed once
+ * up front into this mapping's own tables, so looking up a name set on a or b takes a single table lookup.
+ * Anything else (inner classes, prefixes, names neither mapping has an entry for) is composed from a and b on each lookup;
+ * {@link Remapper} remembers the results per member, so nothing is kept here for names without an entry.
+ *
+ * Like {@link Mapping}, a and b must look up fields by class and name only, ignoring the descriptor.
+ */
+public class ComposedMapping extends Mapping {
+
+	private final Mapping a, b;
+
+	public ComposedMapping(final Mapping a, final Mapping b) {
+		super(a.fromNS, b.toNS);
+		this.a = a;
+		this.b = b;
+
+		a.accept(new EntryVisitor() {
+			@Override
+			public void visitClass(String in, String out) {
+				ComposedMapping.super.setClass(in, b.getClass(out));
+			}
+
+			@Override
+			public void visitField(String clazz, String name, String out) {
+				// fields are looked up without their descriptor, so only class and name are mapped here
+				ComposedMapping.super.setField(clazz, name, b.getField(a.getClass(clazz), out, null));
+			}
+
+			@Override
+			public void visitMethod(String clazz, String name, String desc, String out) {
+				ComposedMapping.super.setMethod(clazz, name, desc, b.getMethod(a.getClass(clazz), out, a.mapMethodDescriptor(desc)));
+			}
+		});
+
+		// entries of b are reached directly when a leaves the name unchanged
+		b.accept(new EntryVisitor() {
+			@Override
+			public void visitClass(String in, String out) {
+				if(findClass(in) == null && a.getClass(in).equals(in)) {
+					ComposedMapping.super.setClass(in, out);
+				}
+			}
+
+			@Override
+			public void visitField(String clazz, String name, String out) {
+				if(findField(clazz, name) == null && a.getClass(clazz).equals(clazz) && a.getField(clazz, name, null).equals(name)) {
+					ComposedMapping.super.setField(clazz, name, out);
+				}
+			}
+
+			@Override
+			public void visitMethod(String clazz, String name, String desc, String out) {
+				if(findMethod(clazz, name, desc) == null && a.getClass(clazz).equals(clazz) && a.getMethod(clazz, name, desc).equals(name) && a.mapMethodDescriptor(desc).equals(desc)) {
+					ComposedMapping.super.setMethod(clazz, name, desc, out);
+				}
+			}
+		});
+
+		freeze();
+	}
+
+	@Override
+	protected String resolveClass(String in) {
+		return b.getClass(a.getClass(in));
+	}
+
+	@Override
+	public String getField(String clazz, String name, String desc) {
+		String ret = findField(clazz, name);
+		if(ret == null && isUnmappable(clazz)) {
+			return name;
+		}
+		if(ret == null) {
+			ret = b.getField(a.getClass(clazz), a.getField(clazz, name, desc), desc == null ? null : a.mapTypeDescriptor(desc));
+		}
+		return ret;
+	}
+
+	@Override
+	public String getMethod(String clazz, String name, String desc) {
+		String ret = findMethod(clazz, name, desc);
+		if(ret == null && isUnmappable(clazz)) {
+			return name;
+		}
+		if(ret == null) {
+			ret = b.getMethod(a.getClass(clazz), a.getMethod(clazz, name, desc), a.mapMethodDescriptor(desc));
+		}
+		return ret;
+	}
+
+	/**
+	 * Unlike other mappings, this counts its symbol table too, since it isn't shared.
+	 */
+	@Override
+	public long estimateSize() {
+		return super.estimateSize() + getSymbols().estimateSize();
+	}
+
+	@Override
+	public boolean isUnmappable(String clazz) {
+		return a.isUnmappable(clazz) && b.isUnmappable(clazz);
+	}
+
+	@Override
+	public boolean mapsClasses() {
+		return a.mapsClasses() || b.mapsClasses();
+	}
+
+	@Override
+	public boolean mapsFields() {
+		return a.mapsFields() || b.mapsFields();
+	}
+
+	@Override
+	public boolean mapsMethods() {
+		return a.mapsMethods() || b.mapsMethods();
+	}
+
+	@Override
+	public List<String> getExceptions(String clazz, String method, String desc) {
+		List<String> rv = new ArrayList<String>();
+		rv.addAll(a.getExceptions(clazz, method, desc));
+		rv.addAll(b.getExceptions(a.getClass(clazz), a.getMethod(clazz, method, desc), a.mapMethodDescriptor(desc)));
+		return rv;
+	}
+
+	@Override
+	public void addPrefix(String old, String new_) {
+		throw new UnsupportedOperationException("Mapping is unmodifiable");
+	}
+
+	@Override
+	public void setClass(String in, String out) {
+		throw new UnsupportedOperationException("Mapping is unmodifiable");
+	}
+
+	@Override
+	public void setDefaultPackage(String p) {
+		throw new UnsupportedOperationException("Mapping is unmodifiable");
+	}
+
+	@Override
+	public void setExceptions(String clazz, String method, String desc, List<String> exc) {
+		throw new UnsupportedOperationException("Mapping is unmodifiable");
+	}
+
+	@Override
+	public void setField(String clazz, String name, String out) {
+		throw new UnsupportedOperationException("Mapping is unmodifiable");
+	}
+
+	@Override
+	public void setMethod(String clazz, String name, String desc, String out) {
+		throw new UnsupportedOperationException("Mapping is unmodifiable");
+	}
+
+}
@@ -0,0 +1,14 @@
+package immibis.bon;
+
+import java.util.Collection;
+
+/**
+ * Classes that can be used as references when remapping or transforming other classes.
+ */
+public interface IReferenceCollection {
+
+	public NameSet getNameSet();
+
+	public Collection<ClassSkeleton> getSkeletons();
+
+}
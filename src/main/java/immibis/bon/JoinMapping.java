@@ -28,6 +28,26 @@ public class JoinMapping extends Mapping {
 		return b.getMethod(a.getClass(clazz), a.getMethod(clazz, name, desc), a.mapMethodDescriptor(desc));
 	}
 
+	@Override
+	public boolean isUnmappable(String clazz) {
+		return a.isUnmappable(clazz) && b.isUnmappable(clazz);
+	}
+
+	@Override
+	public boolean mapsClasses() {
+		return a.mapsClasses() || b.mapsClasses();
+	}
+
+	@Override
+	public boolean mapsFields() {
+		return a.mapsFields() || b.mapsFields();
+	}
+
+	@Override
+	public boolean mapsMethods() {
+		return a.mapsMethods() || b.mapsMethods();
+	}
+
 	@Override
 	public List<String> getExceptions(String clazz, String method, String desc) {
 		List<String> rv = new ArrayList<String>();
@@ -36,6 +56,12 @@ public class JoinMapping extends Mapping {
 		return rv;
 	}
 
+	@Override
+	public String parseTypes(String type, boolean generic, boolean method) {
+		// both mappings cache their own results, which stay right if either of them is changed later
+		return b.parseTypes(a.parseTypes(type, generic, method), generic, method);
+	}
+
 	@Override
 	public String mapMethodDescriptor(String desc) {
 		return b.mapMethodDescriptor(a.mapMethodDescriptor(desc));
@@ -0,0 +1,91 @@
+package immibis.bon;
+
+import java.util.Arrays;
+
+/**
+ * Open addressing map from long keys to non-negative ints, without boxing.
+ * Like HashMap, it can be read by several threads as long as nobody writes to it.
+ */
+class LongIntHashMap implements LongIntMap {
+
+	private long[] keys = new long[16];
+	private int[] values = newValues(16); // -1 marks an empty slot
+	private int size;
+
+	private static int[] newValues(int length) {
+		int[] rv = new int[length];
+		Arrays.fill(rv, -1);
+		return rv;
+	}
+
+	@Override
+	public int get(long key) {
+		int mask = keys.length - 1;
+		for(int k = hash(key) & mask;; k = (k + 1) & mask) {
+			int value = values[k];
+			if(value < 0 || keys[k] == key) {
+				return value;
+			}
+		}
+	}
+
+	@Override
+	public void put(long key, int value) {
+		if(value < 0) {
+			throw new IllegalArgumentException("negative value " + value);
+		}
+		int mask = keys.length - 1;
+		for(int k = hash(key) & mask;; k = (k + 1) & mask) {
+			if(values[k] < 0) {
+				keys[k] = key;
+				values[k] = value;
+				if(++size * 2 > keys.length) {
+					rehash();
+				}
+				return;
+			}
+			if(keys[k] == key) {
+				values[k] = value;
+				return;
+			}
+		}
+	}
+
+	private void rehash() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = newValues(keys.length);
+		size = 0;
+		for(int k = 0; k < oldKeys.length; k++) {
+			if(oldValues[k] >= 0) {
+				put(oldKeys[k], oldValues[k]);
+			}
+		}
+	}
+
+	@Override
+	public long estimateSize() {
+		return keys.length * 12L;
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void forEach(Visitor visitor) {
+		for(int k = 0; k < keys.length; k++) {
+			if(values[k] >= 0) {
+				visitor.visit(keys[k], values[k]);
+			}
+		}
+	}
+
+	static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+}
@@ -0,0 +1,28 @@
+package immibis.bon;
+
+/**
+ * Map from long keys to non-negative ints, like the entry tables of a {@link Mapping}.
+ */
+interface LongIntMap {
+
+	/**
+	 * @return The value, or -1 if the key is not in the map
+	 */
+	public int get(long key);
+
+	public void put(long key, int value);
+
+	public int size();
+
+	/**
+	 * @return Roughly the number of bytes used by the map's arrays
+	 */
+	public long estimateSize();
+
+	public void forEach(Visitor visitor);
+
+	public interface Visitor {
+		public void visit(long key, int value);
+	}
+
+}
@@ -0,0 +1,83 @@
+package immibis.bon;
+
+/**
+ * Open addressing map from long keys to objects, without boxing. Null values can't be stored.
+ * Like HashMap, it can be read by several threads as long as nobody writes to it.
+ */
+class LongObjectHashMap<V> {
+
+	private long[] keys = new long[16];
+	private Object[] values = new Object[16]; // null marks an empty slot
+	private int size;
+
+	@SuppressWarnings("unchecked")
+	public V get(long key) {
+		int mask = keys.length - 1;
+		for(int k = LongIntHashMap.hash(key) & mask;; k = (k + 1) & mask) {
+			Object value = values[k];
+			if(value == null || keys[k] == key) {
+				return (V)value;
+			}
+		}
+	}
+
+	public void put(long key, V value) {
+		if(value == null) {
+			throw new IllegalArgumentException("null value");
+		}
+		int mask = keys.length - 1;
+		for(int k = LongIntHashMap.hash(key) & mask;; k = (k + 1) & mask) {
+			if(values[k] == null) {
+				keys[k] = key;
+				values[k] = value;
+				if(++size * 2 > keys.length) {
+					rehash();
+				}
+				return;
+			}
+			if(keys[k] == key) {
+				values[k] = value;
+				return;
+			}
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void rehash() {
+		long[] oldKeys = keys;
+		Object[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new Object[keys.length];
+		size = 0;
+		for(int k = 0; k < oldKeys.length; k++) {
+			if(oldValues[k] != null) {
+				put(oldKeys[k], (V)oldValues[k]);
+			}
+		}
+	}
+
+	/**
+	 * @return Roughly the number of bytes used by the map's arrays, not counting the values
+	 */
+	public long estimateSize() {
+		return keys.length * 12L;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public interface Visitor<V> {
+		public void visit(long key, V value);
+	}
+
+	@SuppressWarnings("unchecked")
+	public void forEach(Visitor<V> visitor) {
+		for(int k = 0; k < keys.length; k++) {
+			if(values[k] != null) {
+				visitor.visit(keys[k], (V)values[k]);
+			}
+		}
+	}
+
+}
@@ -1,50 +1,296 @@
 package immibis.bon;
 
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Mapping {
 
-	// TODO TheAndrey start: Добавленные поля
-	private static final Pattern PATTERN_CLASS_PART = Pattern.compile("^[a-z0-9_\\/]+\\$([0-9]+)$", Pattern.CASE_INSENSITIVE);
-	private static final Pattern PATTERN_SUBCLASS = Pattern.compile("^[a-z0-9_\\/]+(\\$[a-z0-9]+)+$", Pattern.CASE_INSENSITIVE);
-	// TODO TheAndrey end
-
-	private final Map<String, String> classes = new HashMap<>();
-	private final Map<String, String> methods = new HashMap<>();
-	private final Map<String, String> fields = new HashMap<>();
-	private final Map<String, List<String>> exceptions = new HashMap<>();
-	private final Map<String, String> classPrefixes = new HashMap<>();
+	// entries are keyed and valued by symbol ids, see SymbolTable.key
+	private final SymbolTable symbols;
+	private final LongIntMap classes; // class -> class
+	private final LongIntMap methods; // class, name, desc -> name
+	private final LongIntMap fields; // class, name -> name
+	private final LongObjectHashMap<List<String>> exceptions = new LongObjectHashMap<>(); // class, name, desc -> exceptions
+	private final Map<String, String> resolvedClasses = new ConcurrentHashMap<>(); // getClass results for names not in classes, including unchanged names; safe to fill from several remap threads
+	private final PrefixTrie classPrefixes = new PrefixTrie(0);
+	private final Map<String, String> prefixes = new LinkedHashMap<>(); // same as classPrefixes, for getPrefixes
 	private String defaultPackage = "";
 
+	// results of parseTypes for each combination of its flags
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private final Map<String, String>[] typeCaches = new Map[4];
+
+	// built by freeze: a name missing from a filter has no entry, so most lookups never reach the tables
+	private volatile BloomFilter classFilter, fieldFilter, methodFilter;
+	private volatile boolean leavesLibraries;
+
+	/** Packages of the Java runtime, which mappings leave alone unless they have entries in them, see isUnmappable. */
+	private static final String[] LIBRARY_PACKAGES = {"java/", "javax/"};
+
+	private volatile boolean frozen;
+
 	public final NameSet fromNS, toNS;
 
 	public Mapping(NameSet fromNS, NameSet toNS) {
+		this(fromNS, toNS, new SymbolTable());
+	}
+
+	/**
+	 * @param symbols Can be shared with other mappings loaded from the same files
+	 */
+	public Mapping(NameSet fromNS, NameSet toNS, SymbolTable symbols) {
+		this(fromNS, toNS, symbols, new LongIntHashMap(), new LongIntHashMap(), new LongIntHashMap());
+	}
+
+	/**
+	 * Uses the given tables for the entries, like the views of a {@link MappingPair}.
+	 */
+	Mapping(NameSet fromNS, NameSet toNS, SymbolTable symbols, LongIntMap classes, LongIntMap fields, LongIntMap methods) {
 		this.fromNS = fromNS;
 		this.toNS = toNS;
+		this.symbols = symbols;
+		this.classes = classes;
+		this.fields = fields;
+		this.methods = methods;
+		for(int k = 0; k < typeCaches.length; k++) {
+			typeCaches[k] = new ConcurrentHashMap<>();
+		}
+	}
+
+	/**
+	 * Resolved class names and mapped descriptors depend on the class entries, so they are forgotten whenever those change.
+	 */
+	protected void clearTypeCaches() {
+		resolvedClasses.clear();
+		for(Map<String, String> cache : typeCaches) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Makes the mapping read-only. After this it can be used from any number of threads without locking:
+	 * its entries never change again, and lookups only write to their own concurrent caches.
+	 * Loaders should freeze mappings once they are done filling them.
+	 */
+	public void freeze() {
+		if(frozen) {
+			return;
+		}
+		buildFilters();
+		frozen = true;
+	}
+
+	private void buildFilters() {
+		final BloomFilter classFilter = new BloomFilter(classes.size());
+		final BloomFilter fieldFilter = new BloomFilter(fields.size());
+		final BloomFilter methodFilter = new BloomFilter(methods.size());
+		final boolean[] library = new boolean[1];
+		classes.forEach(new LongIntMap.Visitor() {
+			@Override
+			public void visit(long key, int value) {
+				String in = symbols.getName((int)key);
+				classFilter.add(in.hashCode());
+				library[0] |= isLibraryClass(in);
+			}
+		});
+		fields.forEach(new LongIntMap.Visitor() {
+			@Override
+			public void visit(long key, int value) {
+				String clazz = symbols.getName(SymbolTable.getKeyPart(key, 0));
+				fieldFilter.add(BloomFilter.hash(clazz, symbols.getName(SymbolTable.getKeyPart(key, 1))));
+				library[0] |= isLibraryClass(clazz);
+			}
+		});
+		methods.forEach(new LongIntMap.Visitor() {
+			@Override
+			public void visit(long key, int value) {
+				String clazz = symbols.getName(SymbolTable.getKeyPart(key, 0));
+				methodFilter.add(BloomFilter.hash(clazz, symbols.getName(SymbolTable.getKeyPart(key, 1))));
+				library[0] |= isLibraryClass(clazz);
+			}
+		});
+		for(String prefix : prefixes.keySet()) {
+			for(String p : LIBRARY_PACKAGES) {
+				library[0] |= prefix.startsWith(p) || p.startsWith(prefix);
+			}
+		}
+
+		this.classFilter = classFilter;
+		this.fieldFilter = fieldFilter;
+		this.methodFilter = methodFilter;
+		this.leavesLibraries = !library[0];
+	}
+
+	/**
+	 * Whether the class is in a package of the Java runtime, see isUnmappable.
+	 */
+	public static boolean isLibraryClass(String name) {
+		for(String p : LIBRARY_PACKAGES) {
+			if(name.startsWith(p)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Whether the class and all of its members certainly keep their names, without looking anything up.
+	 * This is the case for classes of the Java runtime, once the mapping is frozen and has no entries for them.
+	 */
+	public boolean isUnmappable(String clazz) {
+		return leavesLibraries && clazz != null && isLibraryClass(clazz);
+	}
+
+	public boolean isFrozen() {
+		return frozen;
+	}
+
+	protected void checkNotFrozen() {
+		if(frozen) {
+			throw new IllegalStateException("Mapping " + fromNS + " -> " + toNS + " is frozen");
+		}
+	}
+
+	public SymbolTable getSymbols() {
+		return symbols;
+	}
+
+	/**
+	 * Whether getClass can return anything but the name it was given. If it can't, class names,
+	 * descriptors and signatures are left as they are, and users of the mapping can skip them entirely.
+	 */
+	public boolean mapsClasses() {
+		return classes.size() > 0 || !prefixes.isEmpty() || !defaultPackage.isEmpty();
+	}
+
+	/**
+	 * Whether getField can return anything but the name it was given.
+	 */
+	public boolean mapsFields() {
+		return fields.size() > 0;
+	}
+
+	/**
+	 * Whether getMethod can return anything but the name it was given.
+	 */
+	public boolean mapsMethods() {
+		return methods.size() > 0;
+	}
+
+	/**
+	 * @return Roughly the number of heap bytes used by the entries and caches of this mapping,
+	 *         not counting the symbol table, which may be shared with other mappings
+	 */
+	public long estimateSize() {
+		long rv = classes.estimateSize() + methods.estimateSize() + fields.estimateSize() + exceptions.estimateSize();
+		if(classFilter != null) {
+			rv += classFilter.estimateSize() + fieldFilter.estimateSize() + methodFilter.estimateSize();
+		}
+		rv += exceptions.size() * 64L;
+		rv += resolvedClasses.size() * 100L;
+		for(Map<String, String> cache : typeCaches) {
+			rv += cache.size() * 150L;
+		}
+		return rv;
 	}
 
 	public void setClass(String in, String out) {
-		classes.put(in, out);
+		checkNotFrozen();
+		classes.put(symbols.intern(in), symbols.intern(out));
+		clearTypeCaches();
 	}
 
 	public void setMethod(String clazz, String name, String desc, String out) {
-		methods.put(clazz + "/" + name + desc, out);
+		checkNotFrozen();
+		methods.put(SymbolTable.key(symbols.intern(clazz), symbols.intern(name), symbols.intern(desc)), symbols.intern(out));
 	}
 
 	public void setField(String clazz, String name, String out) {
-		fields.put(clazz + "/" + name, out);
+		checkNotFrozen();
+		fields.put(SymbolTable.key(symbols.intern(clazz), symbols.intern(name), 0), symbols.intern(out));
 	}
 
 	public void setExceptions(String clazz, String method, String desc, List<String> exc) {
-		exceptions.put(clazz + "/" + method + desc, exc);
+		checkNotFrozen();
+		exceptions.put(SymbolTable.key(symbols.intern(clazz), symbols.intern(method), symbols.intern(desc)), Collections.unmodifiableList(exc));
+	}
+
+	/**
+	 * @return The class entry for the name, or null if there is none
+	 */
+	protected String findClass(String in) {
+		BloomFilter filter = classFilter;
+		if(filter != null && !filter.mightContain(in.hashCode())) {
+			return null;
+		}
+		int id = symbols.get(in);
+		if(id < 0) {
+			return null;
+		}
+		int out = classes.get(id);
+		return out < 0 ? null : symbols.getName(out);
+	}
+
+	/**
+	 * @return The method entry, or null if there is none. Builds no key, and once the mapping is frozen
+	 *         most names without an entry are rejected by the filter before the symbol table is probed.
+	 */
+	protected String findMethod(String clazz, String name, String desc) {
+		BloomFilter filter = methodFilter;
+		if(filter != null && !filter.mightContain(BloomFilter.hash(clazz, name))) {
+			return null;
+		}
+		int clazzId = symbols.get(clazz), nameId = symbols.get(name), descId = symbols.get(desc);
+		if(clazzId < 0 || nameId < 0 || descId < 0) {
+			return null;
+		}
+		int out = methods.get(SymbolTable.key(clazzId, nameId, descId));
+		return out < 0 ? null : symbols.getName(out);
+	}
+
+	/**
+	 * @return The field entry, or null if there is none
+	 */
+	protected String findField(String clazz, String name) {
+		BloomFilter filter = fieldFilter;
+		if(filter != null && !filter.mightContain(BloomFilter.hash(clazz, name))) {
+			return null;
+		}
+		int clazzId = symbols.get(clazz), nameId = symbols.get(name);
+		if(clazzId < 0 || nameId < 0) {
+			return null;
+		}
+		int out = fields.get(SymbolTable.key(clazzId, nameId, 0));
+		return out < 0 ? null : symbols.getName(out);
 	}
 
 	public String getClass(String in) {
 		if(in == null) {
 			return null;
 		}
+		if(isUnmappable(in)) {
+			return in;
+		}
+
+		String ret = findClass(in);
+		if(ret != null) {
+			return ret;
+		}
+		ret = resolvedClasses.get(in);
+		if(ret != null) {
+			return ret;
+		}
+
+		ret = resolveClass(in);
+		resolvedClasses.put(in, ret);
+		return ret;
+	}
+
+	/**
+	 * Maps a name that has no entry of its own. The result is remembered by getClass, even if
+	 * the name isn't changed, so each name goes through here only once.
+	 */
+	protected String resolveClass(String in) {
 		if(in.startsWith("[")) {
 			return "[" + getClass(in.substring(1));
 		}
@@ -68,49 +314,39 @@ public class Mapping {
 			}
 		}
 
-		String ret = classes.get(in);
-		if(ret != null) {
-			return ret;
-		}
-		for(Map.Entry<String, String> e : classPrefixes.entrySet()) {
-			if(in.startsWith(e.getKey())) {
-				return e.getValue() + in.substring(e.getKey().length());
-			}
+		PrefixTrie prefix = classPrefixes.find(in);
+		if(prefix != null) {
+			return prefix.replacement + in.substring(prefix.depth);
 		}
-		if(!in.contains("/")) {
+		if(in.indexOf('/') < 0) {
 			return defaultPackage + in;
 		}
 
 		// TODO TheAndrey start: Ремаппинг подклассов
-		Matcher partMatcher = PATTERN_CLASS_PART.matcher(in);
-		if(partMatcher.matches()) {
-			String parent = getParentClassName(in);
-			int part = Integer.parseInt(partMatcher.group(1));
+		// inner classes of mapped classes: names like a/b/C$1 or a/b/C$D$E, where
+		// the outer class name is [A-Za-z0-9_/]+ and the inner names are [A-Za-z0-9]+
+		int firstSep = getInnerClassSeparator(in);
+		if(firstSep < 0) {
+			return in;
+		}
 
-			String mapped = classes.get(parent);
+		if(in.indexOf('$', firstSep + 1) < 0 && isDigits(in, firstSep + 1)) {
+			// numbered part of a class, the number is normalized
+			String mapped = findClass(in.substring(0, firstSep));
 			if(mapped != null) {
-				mapped += "$" + part;
+				mapped += "$" + Integer.parseInt(in.substring(firstSep + 1));
 				if(!mapped.equals(in)) {
-					setClass(in, mapped); // сохраняем в маппинги для следующих обращений
-//					System.out.println("Remapped part: " + in + " -> " + mapped);
 					return mapped;
 				}
 			}
 		}
 
-		Matcher subClassMatcher = PATTERN_SUBCLASS.matcher(in);
-		if(subClassMatcher.matches()) {
-			String parent = in;
-			while(parent != null) {
-				parent = getParentClassName(parent);
-				String mapped = classes.get(parent);
-				if(mapped != null) {
-					mapped += in.substring(parent.length());
-					if(!mapped.equals(in)) {
-						setClass(in, mapped); // сохраняем в маппинги для следующих обращений
-//						System.out.println("Remapped part: " + in + " -> " + mapped);
-						return mapped;
-					}
+		for(int sep = in.lastIndexOf('$'); sep >= firstSep; sep = in.lastIndexOf('$', sep - 1)) {
+			String mapped = findClass(in.substring(0, sep));
+			if(mapped != null) {
+				mapped += in.substring(sep);
+				if(!mapped.equals(in)) {
+					return mapped;
 				}
 			}
 		}
@@ -119,37 +355,176 @@ public class Mapping {
 		return in;
 	}
 
+	/**
+	 * @return The position of the first $ if the name looks like an inner class name, otherwise -1
+	 */
+	private static int getInnerClassSeparator(String name) {
+		int firstSep = name.indexOf('$');
+		if(firstSep <= 0) {
+			return -1;
+		}
+		for(int k = 0; k < firstSep; k++) {
+			char c = name.charAt(k);
+			if(!isAlphanumeric(c) && c != '_' && c != '/') {
+				return -1;
+			}
+		}
+		boolean emptyPart = true;
+		for(int k = firstSep + 1; k < name.length(); k++) {
+			char c = name.charAt(k);
+			if(c == '$') {
+				if(emptyPart) {
+					return -1;
+				}
+				emptyPart = true;
+			} else if(isAlphanumeric(c)) {
+				emptyPart = false;
+			} else {
+				return -1;
+			}
+		}
+		return emptyPart ? -1 : firstSep;
+	}
+
+	private static boolean isAlphanumeric(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+	}
+
+	private static boolean isDigits(String s, int start) {
+		for(int k = start; k < s.length(); k++) {
+			if(s.charAt(k) < '0' || s.charAt(k) > '9') {
+				return false;
+			}
+		}
+		return start < s.length();
+	}
+
 	public String getMethod(String clazz, String name, String desc) {
-		String ret = methods.get(clazz + "/" + name + desc);
+		String ret = findMethod(clazz, name, desc);
 		return ret == null ? name : ret;
 	}
 
 	public String getField(String clazz, String name, String desc) {
-		String ret = fields.get(clazz + "/" + name);
+		String ret = findField(clazz, name);
 		return ret == null ? name : ret;
 	}
 
 	public List<String> getExceptions(String clazz, String method, String desc) {
-		List<String> ret = exceptions.get(clazz + "/" + method + desc);
+		int clazzId = symbols.get(clazz), methodId = symbols.get(method), descId = symbols.get(desc);
+		List<String> ret = clazzId < 0 || methodId < 0 || descId < 0 ? null : exceptions.get(SymbolTable.key(clazzId, methodId, descId));
 		return ret == null ? Collections.<String>emptyList() : ret;
 	}
 
+	/**
+	 * Receives the entries of a mapping, see {@link Mapping#accept(EntryVisitor)}.
+	 */
+	public interface EntryVisitor {
+		public void visitClass(String in, String out);
+		public void visitField(String clazz, String name, String out);
+		public void visitMethod(String clazz, String name, String desc, String out);
+
+		public default void visitExceptions(String clazz, String method, String desc, List<String> exc) {
+		}
+
+		/**
+		 * A field entry that applies to every class, see {@link NameMapping}.
+		 */
+		public default void visitFieldName(String name, String out) {
+		}
+
+		/**
+		 * A method entry that applies to every class and descriptor, see {@link NameMapping}.
+		 */
+		public default void visitMethodName(String name, String out) {
+		}
+	}
+
+	/**
+	 * Passes every class, field, method and exceptions entry that was set on this mapping to the visitor.
+	 * Names that are only mapped by prefixes, the default package or as inner classes are not visited.
+	 */
+	public void accept(final EntryVisitor visitor) {
+		classes.forEach(new LongIntMap.Visitor() {
+			@Override
+			public void visit(long key, int value) {
+				visitor.visitClass(symbols.getName((int)key), symbols.getName(value));
+			}
+		});
+		fields.forEach(new LongIntMap.Visitor() {
+			@Override
+			public void visit(long key, int value) {
+				visitor.visitField(symbols.getName(SymbolTable.getKeyPart(key, 0)), symbols.getName(SymbolTable.getKeyPart(key, 1)), symbols.getName(value));
+			}
+		});
+		methods.forEach(new LongIntMap.Visitor() {
+			@Override
+			public void visit(long key, int value) {
+				visitor.visitMethod(symbols.getName(SymbolTable.getKeyPart(key, 0)), symbols.getName(SymbolTable.getKeyPart(key, 1)),
+						symbols.getName(SymbolTable.getKeyPart(key, 2)), symbols.getName(value));
+			}
+		});
+		exceptions.forEach(new LongObjectHashMap.Visitor<List<String>>() {
+			@Override
+			public void visit(long key, List<String> value) {
+				visitor.visitExceptions(symbols.getName(SymbolTable.getKeyPart(key, 0)), symbols.getName(SymbolTable.getKeyPart(key, 1)),
+						symbols.getName(SymbolTable.getKeyPart(key, 2)), value);
+			}
+		});
+	}
+
+	/**
+	 * Classes starting with old get that part replaced with new_. If several prefixes match, the longest one is used.
+	 */
 	public void addPrefix(String old, String new_) {
-		classPrefixes.put(old, new_);
+		checkNotFrozen();
+		classPrefixes.add(old, new_);
+		prefixes.put(old, new_);
+		clearTypeCaches();
+	}
+
+	/**
+	 * @return The prefixes added with addPrefix, old prefix -> new prefix
+	 */
+	public Map<String, String> getPrefixes() {
+		return Collections.unmodifiableMap(prefixes);
 	}
 
 	// p must include trailing slash
 	public void setDefaultPackage(String p) {
+		checkNotFrozen();
 		defaultPackage = p;
+		clearTypeCaches();
 	}
 
+	public String getDefaultPackage() {
+		return defaultPackage;
+	}
+
+	/**
+	 * Maps all class names in a descriptor or signature. The same descriptors come up over and over
+	 * again, so results are cached; a descriptor without any remapped class is returned as the same instance.
+	 */
 	public String parseTypes(String type, boolean generic, boolean method) {
 		if(type == null) {
 			return null;
 		}
+		Map<String, String> cache = typeCaches[(generic ? 2 : 0) | (method ? 1 : 0)];
+		String rv = cache.get(type);
+		if(rv == null) {
+			rv = scanTypes(type, generic, method);
+			cache.put(type, rv);
+		}
+		return rv;
+	}
+
+	/**
+	 * Single pass over the descriptor. Nothing is copied until the first class name that actually changes.
+	 */
+	private String scanTypes(String type, boolean generic, boolean method) {
 		int pos = 0, len = type.length(), l = type.indexOf('<');
+		int copied = 0; // everything before this position is already in out
 		char c;
-		StringBuilder out = new StringBuilder(len);
+		StringBuilder out = null;
 		do {
 			switch((c = type.charAt(pos))) {
 				case '(':
@@ -168,20 +543,23 @@ public class Mapping {
 				case '[':
 				case '<':
 				case '>':
-					out.append(c);
 					pos++;
 					continue;
 				case 'L': {
-					out.append('L');
-					char o = ';';
 					int end = type.indexOf(';', pos);
 					if((l > 0) & end > l) {
 						end = l;
-						o = '<';
 						l = type.indexOf('<', l + 1);
 					}
 					final String obf = type.substring(pos + 1, end);
-					out.append(getClass(obf)).append(o);
+					final String mapped = getClass(obf);
+					if(!mapped.equals(obf)) {
+						if(out == null) {
+							out = new StringBuilder(len + 16);
+						}
+						out.append(type, copied, pos + 1).append(mapped);
+						copied = end;
+					}
 					pos = end + 1;
 				}
 				continue;
@@ -189,13 +567,16 @@ public class Mapping {
 					if(!generic) {
 						break;
 					}
-					out.append(c);
 					pos++;
 					continue;
 			}
 			throw new RuntimeException("Unknown character in descriptor: " + type.charAt(pos) + " (in " + type + ")");
 		} while(pos < len);
-		return out.toString();
+
+		if(out == null) {
+			return type;
+		}
+		return out.append(type, copied, len).toString();
 	}
 
 	public String mapMethodDescriptor(String desc) {
@@ -238,4 +619,57 @@ public class Mapping {
 	}
 	// TODO TheAndrey end
 
+	/**
+	 * Class prefixes by character, so finding the prefix of a name takes one step per character of the name.
+	 */
+	private static class PrefixTrie {
+		final int depth;
+		String replacement; // null if no prefix ends here
+		char[] keys = new char[0];
+		PrefixTrie[] children = new PrefixTrie[0];
+
+		PrefixTrie(int depth) {
+			this.depth = depth;
+		}
+
+		void add(String prefix, String replacement) {
+			PrefixTrie node = this;
+			for(int k = 0; k < prefix.length(); k++) {
+				PrefixTrie child = node.getChild(prefix.charAt(k));
+				if(child == null) {
+					child = new PrefixTrie(k + 1);
+					node.keys = Arrays.copyOf(node.keys, node.keys.length + 1);
+					node.children = Arrays.copyOf(node.children, node.children.length + 1);
+					node.keys[node.keys.length - 1] = prefix.charAt(k);
+					node.children[node.children.length - 1] = child;
+				}
+				node = child;
+			}
+			node.replacement = replacement;
+		}
+
+		private PrefixTrie getChild(char c) {
+			for(int k = 0; k < keys.length; k++) {
+				if(keys[k] == c) {
+					return children[k];
+				}
+			}
+			return null;
+		}
+
+		/**
+		 * @return The node of the longest prefix of name, or null if there is none
+		 */
+		PrefixTrie find(String name) {
+			PrefixTrie node = this, found = replacement != null ? this : null;
+			for(int k = 0; k < name.length() && node != null; k++) {
+				node = node.getChild(name.charAt(k));
+				if(node != null && node.replacement != null) {
+					found = node;
+				}
+			}
+			return found;
+		}
+	}
+
 }
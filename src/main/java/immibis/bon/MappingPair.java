@@ -0,0 +1,50 @@
+package immibis.bon;
+
+/**
+ * A mapping and its reverse, with every class, field and method entry stored once in a {@link BidiTable}
+ * that both mappings look up from their own side. Entries are set here, with the names of both sides;
+ * prefixes, the default package and exceptions are still set on the mappings themselves.
+ */
+public class MappingPair {
+
+	private final SymbolTable symbols;
+	private final BidiTable classes = new BidiTable(false), fields = new BidiTable(true), methods = new BidiTable(true);
+
+	public final Mapping forward, reverse;
+
+	public MappingPair(NameSet fromNS, NameSet toNS, SymbolTable symbols) {
+		this.symbols = symbols;
+		forward = new Mapping(fromNS, toNS, symbols, classes.left, fields.left, methods.left);
+		reverse = new Mapping(toNS, fromNS, symbols, classes.right, fields.right, methods.right);
+	}
+
+	public void setClass(String from, String to) {
+		forward.checkNotFrozen();
+		reverse.checkNotFrozen();
+		classes.put(symbols.intern(from), symbols.intern(to));
+		forward.clearTypeCaches();
+		reverse.clearTypeCaches();
+	}
+
+	public void setField(String fromOwner, String fromName, String toOwner, String toName) {
+		forward.checkNotFrozen();
+		reverse.checkNotFrozen();
+		fields.put(SymbolTable.key(symbols.intern(fromOwner), symbols.intern(fromName), 0), SymbolTable.key(symbols.intern(toOwner), symbols.intern(toName), 0));
+	}
+
+	public void setMethod(String fromOwner, String fromName, String fromDesc, String toOwner, String toName, String toDesc) {
+		forward.checkNotFrozen();
+		reverse.checkNotFrozen();
+		methods.put(SymbolTable.key(symbols.intern(fromOwner), symbols.intern(fromName), symbols.intern(fromDesc)),
+				SymbolTable.key(symbols.intern(toOwner), symbols.intern(toName), symbols.intern(toDesc)));
+	}
+
+	public void freeze() {
+		classes.trim();
+		fields.trim();
+		methods.trim();
+		forward.freeze();
+		reverse.freeze();
+	}
+
+}
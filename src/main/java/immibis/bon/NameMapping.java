@@ -0,0 +1,112 @@
+package immibis.bon;
+
+/**
+ * A mapping that renames fields and methods by name alone, whatever their class and descriptor.
+ * This is how the CSV files of MCP work: SRG names like func_12345_a and field_6789_b are unique,
+ * so one entry covers every class that has the member, and no entries are needed per class and descriptor.
+ *
+ * Entries set with setField and setMethod still work as usual and take precedence over name entries.
+ * Name entries also apply to library classes, unless the loader knows none of its names is a library member
+ * and turns that off with setNamesInLibraries.
+ */
+public class NameMapping extends Mapping {
+
+	private final LongIntHashMap fieldNames = new LongIntHashMap(); // name -> name
+	private final LongIntHashMap methodNames = new LongIntHashMap(); // name -> name
+	private boolean namesInLibraries = true;
+
+	public NameMapping(NameSet fromNS, NameSet toNS) {
+		super(fromNS, toNS);
+	}
+
+	public NameMapping(NameSet fromNS, NameSet toNS, SymbolTable symbols) {
+		super(fromNS, toNS, symbols);
+	}
+
+	public void setFieldName(String name, String out) {
+		checkNotFrozen();
+		fieldNames.put(getSymbols().intern(name), getSymbols().intern(out));
+	}
+
+	public void setMethodName(String name, String out) {
+		checkNotFrozen();
+		methodNames.put(getSymbols().intern(name), getSymbols().intern(out));
+	}
+
+	/**
+	 * Sets whether the name entries apply to members of library classes. Turning this off
+	 * lets {@link #isUnmappable} skip library classes, which most lookups are for.
+	 */
+	public void setNamesInLibraries(boolean namesInLibraries) {
+		checkNotFrozen();
+		this.namesInLibraries = namesInLibraries;
+	}
+
+	public boolean getNamesInLibraries() {
+		return namesInLibraries;
+	}
+
+	private boolean hasNames(String clazz) {
+		return namesInLibraries || clazz == null || !isLibraryClass(clazz);
+	}
+
+	@Override
+	protected String findField(String clazz, String name) {
+		String ret = super.findField(clazz, name);
+		if(ret == null && hasNames(clazz)) {
+			int id = getSymbols().get(name);
+			int out = id < 0 ? -1 : fieldNames.get(id);
+			ret = out < 0 ? null : getSymbols().getName(out);
+		}
+		return ret;
+	}
+
+	@Override
+	protected String findMethod(String clazz, String name, String desc) {
+		String ret = super.findMethod(clazz, name, desc);
+		if(ret == null && hasNames(clazz)) {
+			int id = getSymbols().get(name);
+			int out = id < 0 ? -1 : methodNames.get(id);
+			ret = out < 0 ? null : getSymbols().getName(out);
+		}
+		return ret;
+	}
+
+	@Override
+	public boolean isUnmappable(String clazz) {
+		return (!namesInLibraries || fieldNames.size() == 0 && methodNames.size() == 0) && super.isUnmappable(clazz);
+	}
+
+	@Override
+	public boolean mapsFields() {
+		return fieldNames.size() > 0 || super.mapsFields();
+	}
+
+	@Override
+	public boolean mapsMethods() {
+		return methodNames.size() > 0 || super.mapsMethods();
+	}
+
+	@Override
+	public long estimateSize() {
+		return super.estimateSize() + fieldNames.estimateSize() + methodNames.estimateSize();
+	}
+
+	@Override
+	public void accept(final EntryVisitor visitor) {
+		super.accept(visitor);
+		fieldNames.forEach(new LongIntMap.Visitor() {
+			@Override
+			public void visit(long key, int value) {
+				visitor.visitFieldName(getSymbols().getName((int)key), getSymbols().getName(value));
+			}
+		});
+		methodNames.forEach(new LongIntMap.Visitor() {
+			@Override
+			public void visit(long key, int value) {
+				visitor.visitMethodName(getSymbols().getName((int)key), getSymbols().getName(value));
+			}
+		});
+	}
+
+}
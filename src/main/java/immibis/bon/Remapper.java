@@ -1,11 +1,17 @@
 package immibis.bon;
 
-import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import immibis.bon.io.MappingFactory;
 import immibis.bon.io.MappingFactory.MappingUnavailableException;
 import org.objectweb.asm.Handle;
@@ -18,41 +24,98 @@ import org.objectweb.asm.tree.*;
  */
 public class Remapper {
 
-	private final HashMap<String, ClassNode> refClasses = new HashMap<>();
-	private final HashMap<String, Set<String>> inheritanceMap = new HashMap<>(); // parent class => inheritor list
 	private final Mapping mapping;
+	private final int threads;
+	// dimensions the mapping doesn't change are skipped, so an SRG -> MCP remap only touches member names
+	private final boolean mapsClasses, mapsFields, mapsMethods;
+	private ClassHierarchy hierarchy;
+	private MemberTable fieldTable, methodTable;
 
 	public Remapper(Mapping mapping) {
+		this(mapping, 1);
+	}
+
+	/**
+	 * @param threads Number of threads used to remap classes. 1 remaps everything on the calling thread.
+	 */
+	public Remapper(Mapping mapping, int threads) {
 		this.mapping = mapping;
+		this.threads = Math.max(1, threads);
+		this.mapsClasses = mapping.mapsClasses();
+		this.mapsFields = mapping.mapsFields();
+		this.mapsMethods = mapping.mapsMethods();
+	}
+
+	/**
+	 * Maps a field reference. The field is resolved and mapped the first time it is seen,
+	 * after that this is a plain table lookup.
+	 */
+	MappedMember mapField(String owner, String name, String desc) {
+		MappedMember mapped = fieldTable.get(owner, name, desc);
+		if(mapped == null) {
+			String realOwner = resolveField(owner, name, desc);
+			if(realOwner == null) realOwner = owner;
+
+			// the owner is always replaced with the resolved one, even if nothing else changes
+			String newName = mapsFields && !mapping.isUnmappable(realOwner) ? mapping.getField(realOwner, name, desc) : name;
+			mapped = mapsClasses ? new MappedMember(mapping.getClass(realOwner), newName, mapping.mapTypeDescriptor(desc)) : new MappedMember(realOwner, newName, desc);
+			fieldTable.put(owner, name, desc, mapped);
+		}
+		return mapped;
+	}
+
+	/**
+	 * Maps a method reference or declaration, see {@link #mapField(String, String, String)}.
+	 * The owner of the result is the mapped owner, not the resolved one which could be an interface.
+	 */
+	MappedMember mapMethod(String owner, String name, String desc) {
+		MappedMember mapped = methodTable.get(owner, name, desc);
+		if(mapped == null && (!mapsMethods || mapping.isUnmappable(owner))) {
+			// methods are only resolved to look up their new names, and library methods only override library methods
+			mapped = mapsClasses ? new MappedMember(mapping.getClass(owner), name, mapping.mapMethodDescriptor(desc)) : new MappedMember(owner, name, desc);
+			methodTable.put(owner, name, desc, mapped);
+		}
+		if(mapped == null) {
+			String[] realOwnerAndDesc = resolveMethod(owner, name, desc);
+
+			String realOwner = realOwnerAndDesc == null ? owner : realOwnerAndDesc[0];
+			String realDesc = realOwnerAndDesc == null ? desc : realOwnerAndDesc[1];
+
+			mapped = new MappedMember(mapping.getClass(owner), mapping.getMethod(realOwner, name, realDesc), mapping.mapMethodDescriptor(realDesc));
+			methodTable.put(owner, name, desc, mapped);
+		}
+		return mapped;
 	}
 
 	/**
 	 * Returns actual owner of field or null if the field could not be resolved
 	 */
 	private String resolveField(String owner, String name, String desc) {
-		ClassNode cn = refClasses.get(owner);
-		if(cn == null) return null;
+		int id = hierarchy.getId(owner);
+		return id < 0 ? null : resolveField(id, name, desc);
+	}
+
+	private String resolveField(int id, String name, String desc) {
+		String owner = hierarchy.getName(id);
 
 		if(!mapping.getField(owner, name, desc).equals(name)) {
 			return owner; // short-circuit: this is a remapped field
 		}
 		// http://docs.oracle.com/javase/specs/jvms/se7/html/jvms-5.html#jvms-5.4.3.2
 
-		for(FieldNode fn : cn.fields) {
-			if(fn.name.equals(name) && fn.desc.equals(desc)) {
-				return owner;
-			}
+		if(hierarchy.declaresField(id, name, desc)) {
+			return owner;
 		}
 
-		for(String i : cn.interfaces) {
+		for(int i : hierarchy.getInterfaces(id)) {
 			String result = resolveField(i, name, desc);
 			if(result != null) {
 				return result;
 			}
 		}
 
-		return resolveField(cn.superName, name, desc);
-
+		int superclass = hierarchy.getSuperclass(id);
+		return superclass < 0 ? null : resolveField(superclass, name, desc);
 	}
 
 	/**
@@ -60,8 +123,12 @@ public class Remapper {
 	 * @return [realOwner, realDesc] or null if the method could not be resolved
 	 */
 	private String[] resolveMethod(String owner, String name, String desc) {
-		ClassNode cn = refClasses.get(owner);
-		if(cn == null) return null;
+		int id = hierarchy.getId(owner);
+		return id < 0 ? null : resolveMethod(id, name, desc);
+	}
+
+	private String[] resolveMethod(int id, String name, String desc) {
+		String owner = hierarchy.getName(id);
 
 		String newName = mapping.getMethod(owner, name, desc);
 		if(!newName.equals(name)) {
@@ -69,18 +136,15 @@ public class Remapper {
 		}
 		String[] r = null;
 
+		if(hierarchy.declaresMethod(id, name, desc)) {
+			r = new String[]{owner, desc, name};
+		}
+
 		/* Process interface class */
-		if((cn.access & Opcodes.ACC_INTERFACE) != 0) {
+		if(hierarchy.isInterface(id)) {
 
 			// interface method resolution; http://docs.oracle.com/javase/specs/jvms/se7/html/jvms-5.html#jvms-5.4.3.4
-			for(MethodNode mn : cn.methods) {
-				if(mn.name.equals(name) && mn.desc.equals(desc)) {
-					r = new String[]{owner, desc, name};
-					break;
-				}
-			}
-
-			for(String i : cn.interfaces) {
+			for(int i : hierarchy.getInterfaces(id)) {
 				String[] result = resolveMethod(i, name, desc);
 				if(r == null ? result != null : (result != null && !result[2].equals(r[2]))) {
 					return result;
@@ -90,65 +154,36 @@ public class Remapper {
 		} else {
 
 			// normal method resolution; http://docs.oracle.com/javase/specs/jvms/se7/html/jvms-5.html#jvms-5.4.3.3
-			for(MethodNode mn : cn.methods) {
-				if(mn.name.equals(name) && mn.desc.equals(desc)) {
-					r = new String[]{owner, desc, name};
-					break;
-				}
-			}
-
-			String originalOwner = owner;
+			int[] superclasses = hierarchy.getSuperclasses(id);
 
-			while(true) {
-				cn = refClasses.get(owner);
-				if(cn == null) {
-					break;
-				}
+			for(int superclass : superclasses) {
+				String superName = hierarchy.getName(superclass);
 
-				newName = mapping.getMethod(owner, name, desc);
+				newName = mapping.getMethod(superName, name, desc);
 				if(!newName.equals(name)) {
-					return new String[]{owner, desc, newName}; // short-circuit: this is a remapped method
+					return new String[]{superName, desc, newName}; // short-circuit: this is a remapped method
 				}
-				if(r == null) {
-					for(MethodNode mn : cn.methods) {
-						if(mn.name.equals(name) && mn.desc.equals(desc)) {
-							r = new String[]{owner, desc, name};
-							break;
-						}
-					}
+				if(r == null && hierarchy.declaresMethod(superclass, name, desc)) {
+					r = new String[]{superName, desc, name};
 				}
-
-				owner = cn.superName;
 			}
 
-			owner = originalOwner;
-
-			while(true) {
-				cn = refClasses.get(owner);
-				if(cn == null) {
-					break;
-				}
-
-				for(String i : cn.interfaces) {
+			for(int superclass : superclasses) {
+				for(int i : hierarchy.getInterfaces(superclass)) {
 					String[] result = resolveMethod(i, name, desc);
 					if(r == null ? result != null : (result != null && !result[2].equals(r[2]))) {
 						return result;
 					}
 				}
-
-				owner = cn.superName;
 			}
 
-			/* TheAndrey: Find method owner in interfaces of inherited classes */
-			HashSet<ClassNode> possibleInterfaces = new LinkedHashSet<>();
-			findInheritedInterfaces(originalOwner, possibleInterfaces);
+			/* TheAndrey: Find method owner in interfaces of inherited classes (the last match wins) */
+			int[] possibleInterfaces = hierarchy.getInheritedInterfaces(id);
 
-			for(ClassNode inode : possibleInterfaces) {
-				for(MethodNode method : inode.methods) {
-					if(method.name.equals(name) && method.desc.equals(desc)) {
-						r = new String[]{inode.name, desc, name};
-						break;
-					}
+			for(int k = possibleInterfaces.length - 1; k >= 0; k--) {
+				if(hierarchy.declaresMethod(possibleInterfaces[k], name, desc)) {
+					r = new String[]{hierarchy.getName(possibleInterfaces[k]), desc, name};
+					break;
 				}
 			}
 		}
@@ -156,270 +191,330 @@ public class Remapper {
 		return r;
 	}
 
+	public ClassCollection remap(ClassCollection cc, Collection<? extends IReferenceCollection> refs, IProgressListener progress) {
+		prepare(cc.getNameSet(), cc.getSkeletons(), refs);
+		return remapClasses(cc.cloneWithNameSet(mapping.toNS), progress);
+	}
+
 	/**
-	 * Recursive scan of inherited interfaces
+	 * Remaps the classes without copying them first. The caller gives up the input collection:
+	 * it can't be used after this returns, only the returned collection can.
 	 */
-	private void findInheritedInterfaces(String owner, Set<ClassNode> interfaces) {
-		/* Get all inherits of class */
-		Set<String> inherited = inheritanceMap.get(owner);
-		if(inherited == null || inherited.isEmpty()) return; // stop
+	public ClassCollection remapInPlace(ClassCollection cc, Collection<? extends IReferenceCollection> refs, IProgressListener progress) {
+		prepare(cc.getNameSet(), cc.getSkeletons(), refs);
+		return remapClasses(cc.transferWithNameSet(mapping.toNS), progress);
+	}
 
-		for(String name : inherited) {
-			/* Get interfaces */
-			ClassNode node = refClasses.get(name);
-			if(node != null) addInterfacesRecursive(node, interfaces);
+	/**
+	 * Remaps reference classes. Only the names in the skeletons are changed, the same way
+	 * {@link #remap(ClassCollection, Collection, IProgressListener)} changes them.
+	 */
+	public SkeletonCollection remap(SkeletonCollection sc, Collection<? extends IReferenceCollection> refs, IProgressListener progress) {
+		prepare(sc.getNameSet(), sc.getSkeletons(), refs);
 
-			findInheritedInterfaces(name, interfaces);
+		if(progress != null) {
+			progress.setMax(sc.getSkeletons().size());
 		}
+		int classesProcessed = 0;
+
+		Collection<ClassSkeleton> rv = new ArrayList<>(sc.getSkeletons().size());
+		for(ClassSkeleton cs : sc.getSkeletons()) {
+			if(progress != null) {
+				progress.set(classesProcessed++);
+			}
+
+			String[] methods = new String[cs.methods.length];
+			for(int k = 0; k < methods.length; k += 2) {
+				MappedMember mapped = mapMethod(cs.name, cs.methods[k], cs.methods[k + 1]);
+				methods[k] = mapped.name;
+				methods[k + 1] = mapped.desc;
+			}
+
+			String[] fields = new String[cs.fields.length];
+			for(int k = 0; k < fields.length; k += 2) {
+				fields[k] = mapping.getField(cs.name, cs.fields[k], cs.fields[k + 1]);
+				fields[k + 1] = mapping.mapTypeDescriptor(cs.fields[k + 1]);
+			}
+
+			String[] interfaces = new String[cs.interfaces.length];
+			for(int k = 0; k < interfaces.length; k++) {
+				interfaces[k] = mapping.getClass(cs.interfaces[k]);
+			}
+
+			rv.add(new ClassSkeleton(mapping.getClass(cs.name), mapping.getClass(cs.superName), cs.access, interfaces, methods, fields));
+		}
+		return new SkeletonCollection(mapping.toNS, rv);
 	}
 
-	private void addInterfacesRecursive(ClassNode node, Set<ClassNode> interfaces) {
-		if(node.interfaces == null || node.interfaces.isEmpty()) return;
+	private ClassCollection remapClasses(ClassCollection cc, IProgressListener progress) {
+		if(progress != null) {
+			progress.setMax(cc.getAllClasses().size());
+		}
+
+		if(threads > 1 && cc.getAllClasses().size() > 1) {
+			remapParallel(cc.getAllClasses(), progress);
+		} else {
+			int classesProcessed = 0;
+
+			for(ClassNode cn : cc.getAllClasses()) {
+				if(progress != null) {
+					progress.set(classesProcessed++);
+				}
 
-		for(String name : node.interfaces) {
-			ClassNode inode = refClasses.get(name);
-			if(inode != null) {
-				interfaces.add(inode);
-				if(Modifier.isInterface(inode.access)) addInterfacesRecursive(inode, interfaces);
+				remapClass(cn);
 			}
 		}
+
+		return cc;
 	}
 
-	public ClassCollection remap(ClassCollection cc, Collection<ClassCollection> refs, IProgressListener progress) {
-		if(!cc.getNameSet().equals(mapping.fromNS)) {
-			throw new IllegalArgumentException("Input classes use nameset " + cc.getNameSet() + ", but mapping is from " + mapping.fromNS + "; cannot apply mapping");
+	/**
+	 * Builds the class hierarchy of the input and reference classes, and resets the resolved member tables.
+	 * Input classes replace reference classes with the same name.
+	 */
+	void prepare(NameSet inputNS, Collection<ClassSkeleton> classes, Collection<? extends IReferenceCollection> refs) {
+		if(!inputNS.equals(mapping.fromNS)) {
+			throw new IllegalArgumentException("Input classes use nameset " + inputNS + ", but mapping is from " + mapping.fromNS + "; cannot apply mapping");
 		}
 
-		for(ClassCollection ref : refs) {
+		for(IReferenceCollection ref : refs) {
 			if(!ref.getNameSet().equals(mapping.fromNS)) {
-				throw new IllegalArgumentException("Reference ClassCollection uses nameset " + ref.getNameSet() + " but input uses " + mapping.fromNS);
+				throw new IllegalArgumentException("Reference collection uses nameset " + ref.getNameSet() + " but input uses " + mapping.fromNS);
 			}
 		}
 
-		refClasses.clear();
-		inheritanceMap.clear();
+		Map<String, ClassSkeleton> refClasses = new HashMap<>();
 
-		for(ClassCollection refcc : refs) {
-			for(ClassNode cn : refcc.getAllClasses()) {
+		for(IReferenceCollection refcc : refs) {
+			for(ClassSkeleton cn : refcc.getSkeletons()) {
 				refClasses.put(cn.name, cn);
 			}
 		}
-		for(ClassNode cn : cc.getAllClasses()) {
+		for(ClassSkeleton cn : classes) {
 			refClasses.put(cn.name, cn);
 		}
 
-		// TheAndrey: Generate inheritance map
-		for(ClassNode node : refClasses.values()) {
-			if(Modifier.isInterface(node.access)) { // Interface
-
-				if(node.interfaces != null && !node.interfaces.isEmpty()) {
-					for(String parent : node.interfaces) {
-						if(parent.startsWith("java/")) continue; // Not needed for remap
+		hierarchy = new ClassHierarchy(refClasses.values());
+		fieldTable = new MemberTable();
+		methodTable = new MemberTable();
+	}
 
-						Set<String> list = inheritanceMap.computeIfAbsent(parent, k -> new LinkedHashSet<>());
-						list.add(node.name);
+	/**
+	 * Remaps classes on a private fork-join pool. Classes are independent of each other once
+	 * the class hierarchy is built, so the result is the same as for the sequential loop.
+	 */
+	private void remapParallel(Collection<ClassNode> classes, IProgressListener progress) {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		int[] classesProcessed = {0}; // guarded by progress
+		List<Callable<Void>> tasks = new ArrayList<>(classes.size());
+
+		for(ClassNode cn : classes) {
+			tasks.add(() -> {
+				// counted under the lock, so the values reach the listener in order,
+				// and like in the sequential loop, each is the number of classes started before this one
+				if(progress != null) {
+					synchronized(progress) {
+						progress.set(classesProcessed[0]++);
 					}
 				}
 
-			} else if(!node.superName.equals("java/lang/Object")) { // Normal class
-
-				Set<String> list = inheritanceMap.computeIfAbsent(node.superName, k -> new LinkedHashSet<>());
-				list.add(node.name);
-
-			}
-		}
-
-		cc = cc.cloneWithNameSet(mapping.toNS);
-
-		int classesProcessed = 0;
-
-		if(progress != null) {
-			progress.setMax(cc.getAllClasses().size());
+				remapClass(cn);
+				return null;
+			});
 		}
 
-		for(ClassNode cn : cc.getAllClasses()) {
-
-			if(progress != null) {
-				progress.set(classesProcessed++);
+		try {
+			for(Future<Void> future : pool.invokeAll(tasks)) {
+				future.get();
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while remapping", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			if(e.getCause() instanceof Error) {
+				throw (Error)e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
 
-			for(MethodNode mn : cn.methods) {
-
-				String[] resolvedMN = resolveMethod(cn.name, mn.name, mn.desc);
-
-				if(resolvedMN != null) {
-					mn.name = mapping.getMethod(resolvedMN[0], mn.name, resolvedMN[1]);
-					mn.desc = mapping.mapMethodDescriptor(resolvedMN[1]);
+	private void remapClass(ClassNode cn) {
+		for(MethodNode mn : cn.methods) {
 
-				} else {
-					mn.name = mapping.getMethod(cn.name, mn.name, mn.desc);
-					mn.desc = mapping.mapMethodDescriptor(mn.desc);
-				}
+			MappedMember mappedMN = mapMethod(cn.name, mn.name, mn.desc);
+			mn.name = mappedMN.name;
+			mn.desc = mappedMN.desc;
 
-				if(mn.instructions != null) {
-					for(AbstractInsnNode ain = mn.instructions.getFirst(); ain != null; ain = ain.getNext()) {
+			if(mn.instructions != null) {
+				for(AbstractInsnNode ain = mn.instructions.getFirst(); ain != null; ain = ain.getNext()) {
 
-						switch(ain.getType()) {
-							case AbstractInsnNode.FIELD_INSN: {
-								FieldInsnNode fin = (FieldInsnNode)ain;
+					switch(ain.getType()) {
+						case AbstractInsnNode.FIELD_INSN: {
+							FieldInsnNode fin = (FieldInsnNode)ain;
 
-								String realOwner = resolveField(fin.owner, fin.name, fin.desc);
-								if(realOwner == null) realOwner = fin.owner;
+							MappedMember mapped = mapField(fin.owner, fin.name, fin.desc);
+							fin.name = mapped.name;
+							fin.desc = mapped.desc;
+							fin.owner = mapped.owner;
+							break;
+						}
 
-								fin.name = mapping.getField(realOwner, fin.name, fin.desc);
-								fin.desc = mapping.mapTypeDescriptor(fin.desc);
-								fin.owner = mapping.getClass(realOwner);
+						case AbstractInsnNode.FRAME: {
+							if(!mapsClasses) {
 								break;
 							}
+							FrameNode fn = (FrameNode)ain;
 
-							case AbstractInsnNode.FRAME: {
-								FrameNode fn = (FrameNode)ain;
-
-								if(fn.local != null) {
-									for(int k = 0; k < fn.local.size(); k++) {
-										if(fn.local.get(k) instanceof String) {
-											fn.local.set(k, mapping.getClass((String)fn.local.get(k)));
-										}
+							if(fn.local != null) {
+								for(int k = 0; k < fn.local.size(); k++) {
+									if(fn.local.get(k) instanceof String) {
+										fn.local.set(k, mapping.getClass((String)fn.local.get(k)));
 									}
 								}
+							}
 
-								if(fn.stack != null) {
-									for(int k = 0; k < fn.stack.size(); k++) {
-										if(fn.stack.get(k) instanceof String) {
-											fn.stack.set(k, mapping.getClass((String)fn.stack.get(k)));
-										}
+							if(fn.stack != null) {
+								for(int k = 0; k < fn.stack.size(); k++) {
+									if(fn.stack.get(k) instanceof String) {
+										fn.stack.set(k, mapping.getClass((String)fn.stack.get(k)));
 									}
 								}
-								break;
 							}
+							break;
+						}
 
-							case AbstractInsnNode.METHOD_INSN: {
-								MethodInsnNode min = (MethodInsnNode)ain;
-
-								String[] realOwnerAndDesc = resolveMethod(min.owner, min.name, min.desc);
+						case AbstractInsnNode.METHOD_INSN: {
+							MethodInsnNode min = (MethodInsnNode)ain;
 
-								String realOwner = realOwnerAndDesc == null ? min.owner : realOwnerAndDesc[0];
-								String realDesc = realOwnerAndDesc == null ? min.desc : realOwnerAndDesc[1];
+							MappedMember mapped = mapMethod(min.owner, min.name, min.desc);
+							min.name = mapped.name;
+							min.owner = mapped.owner;
+							min.desc = mapped.desc;
+							break;
+						}
 
-								min.name = mapping.getMethod(realOwner, min.name, realDesc);
-								min.owner = mapping.getClass(min.owner); // note: not realOwner which could be an interface
-								min.desc = mapping.mapMethodDescriptor(realDesc);
+						case AbstractInsnNode.LDC_INSN: {
+							if(!mapsClasses) {
 								break;
 							}
+							LdcInsnNode lin = (LdcInsnNode)ain;
+							lin.cst = mapConstant(lin.cst);
+							break;
+						}
 
-							case AbstractInsnNode.LDC_INSN: {
-								LdcInsnNode lin = (LdcInsnNode)ain;
-								if(lin.cst instanceof Type) {
-									lin.cst = Type.getType(mapping.mapTypeDescriptor(((Type)lin.cst).getDescriptor()));
-								}
+						case AbstractInsnNode.TYPE_INSN: {
+							if(!mapsClasses) {
 								break;
 							}
+							TypeInsnNode tin = (TypeInsnNode)ain;
+							tin.desc = mapping.getClass(tin.desc);
+							break;
+						}
 
-							case AbstractInsnNode.TYPE_INSN: {
-								TypeInsnNode tin = (TypeInsnNode)ain;
-								tin.desc = mapping.getClass(tin.desc);
+						// TheAndrey start
+						case AbstractInsnNode.MULTIANEWARRAY_INSN: { // Многомерный массив
+							if(!mapsClasses) {
 								break;
 							}
+							MultiANewArrayInsnNode arrayinsn = (MultiANewArrayInsnNode)ain;
+							arrayinsn.desc = mapping.getClass(arrayinsn.desc);
+							break;
+						}
 
-							// TheAndrey start
-							case AbstractInsnNode.MULTIANEWARRAY_INSN: { // Многомерный массив
-								MultiANewArrayInsnNode arrayinsn = (MultiANewArrayInsnNode)ain;
-								arrayinsn.desc = mapping.getClass(arrayinsn.desc);
-								break;
-							}
+						case AbstractInsnNode.INVOKE_DYNAMIC_INSN: { // Вызов лямбды
+							InvokeDynamicInsnNode invokeinsn = (InvokeDynamicInsnNode)ain;
+							Type returnType = Type.getReturnType(invokeinsn.desc);
+							Type internalDesc = null;
 
-							case AbstractInsnNode.INVOKE_DYNAMIC_INSN: { // Вызов лямбды
-								InvokeDynamicInsnNode invokeinsn = (InvokeDynamicInsnNode)ain;
-								Type returnType = Type.getReturnType(invokeinsn.desc);
-								Type internalDesc = null;
-
-								invokeinsn.desc = mapping.mapMethodDescriptor(invokeinsn.desc);
-
-								// Правим типы аргументов
-								for(int i = 0; i < invokeinsn.bsmArgs.length; i++) {
-									Object arg = invokeinsn.bsmArgs[i];
-
-									if(arg instanceof Type) {
-										if(internalDesc == null) internalDesc = (Type)arg;
-										arg = Type.getType(mapping.mapMethodDescriptor(((Type)arg).getDescriptor()));
-									} else if(arg instanceof Handle) {
-										Handle handle = (Handle)arg;
-										boolean isField = isFieldHandle(handle);
-										String handleOwner = mapping.getClass(handle.getOwner());
-										String handleName = isField ? mapping.getField(handle.getOwner(), handle.getName(), handle.getDesc()) : mapping.getMethod(handle.getOwner(), handle.getName(), handle.getDesc());
-										String handleDesc = isField ? mapping.mapTypeDescriptor(handle.getDesc()) : mapping.mapMethodDescriptor(handle.getDesc());
-										if(!handle.getOwner().equals(handleOwner) || !handle.getName().equals(handleName) || !handle.getDesc().equals(handleDesc)) {
-											arg = new Handle(handle.getTag(), handleOwner, handleName, handleDesc, handle.isInterface());
-										}
-									}
+							invokeinsn.desc = mapping.mapMethodDescriptor(invokeinsn.desc);
 
-									invokeinsn.bsmArgs[i] = arg;
-								}
+							// Правим типы аргументов
+							for(int i = 0; i < invokeinsn.bsmArgs.length; i++) {
+								Object arg = invokeinsn.bsmArgs[i];
 
-								// Переименование BootstrapMethod, после того как определили его desc из параметров
-								if(internalDesc != null) {
-									invokeinsn.name = mapping.getMethod(returnType.getInternalName(), invokeinsn.name, internalDesc.toString());
+								if(arg instanceof Type && internalDesc == null) {
+									internalDesc = (Type)arg;
 								}
-								break;
+
+								invokeinsn.bsmArgs[i] = mapBootstrapArgument(arg);
 							}
-							// TheAndrey end
-						}
 
+							// Переименование BootstrapMethod, после того как определили его desc из параметров
+							if(internalDesc != null) {
+								invokeinsn.name = mapping.getMethod(returnType.getInternalName(), invokeinsn.name, internalDesc.toString());
+							}
+							break;
+						}
+						// TheAndrey end
 					}
-				}
 
-				for(TryCatchBlockNode tcb : mn.tryCatchBlocks) {
-					if(tcb.type != null) {
-						tcb.type = mapping.getClass(tcb.type);
-					}
 				}
+			}
 
-				{
-					Set<String> exceptions = new HashSet<>(mn.exceptions);
-					exceptions.addAll(mapping.getExceptions(cn.name, mn.name, mn.desc));
-					mn.exceptions.clear();
-					for(String s : exceptions) {
-						mn.exceptions.add(mapping.getClass(s));
-					}
+			{
+				List<String> exceptions = mapExceptions(cn.name, mn.name, mn.desc, mn.exceptions);
+				mn.exceptions.clear();
+				mn.exceptions.addAll(exceptions);
+			}
+
+			if(!mapsClasses) {
+				continue;
+			}
+
+			for(TryCatchBlockNode tcb : mn.tryCatchBlocks) {
+				if(tcb.type != null) {
+					tcb.type = mapping.getClass(tcb.type);
 				}
+			}
 
-				if(mn.localVariables != null) {
-					for(LocalVariableNode lvn : mn.localVariables) {
-						lvn.desc = mapping.mapTypeDescriptor(lvn.desc);
-					}
+			if(mn.localVariables != null) {
+				for(LocalVariableNode lvn : mn.localVariables) {
+					lvn.desc = mapping.mapTypeDescriptor(lvn.desc);
 				}
+			}
 
-				mn.signature = mapping.parseTypes(mn.signature, true, true);
+			mn.signature = mapping.parseTypes(mn.signature, true, true);
 
-				if(mn.visibleAnnotations != null) {
-					for(AnnotationNode n : mn.visibleAnnotations) {
-						n.desc = mapping.parseTypes(n.desc, true, false);
-					}
+			if(mn.visibleAnnotations != null) {
+				for(AnnotationNode n : mn.visibleAnnotations) {
+					n.desc = mapping.parseTypes(n.desc, true, false);
 				}
-				if(mn.invisibleAnnotations != null) {
-					for(AnnotationNode n : mn.invisibleAnnotations) {
-						n.desc = mapping.parseTypes(n.desc, true, false);
-					}
+			}
+			if(mn.invisibleAnnotations != null) {
+				for(AnnotationNode n : mn.invisibleAnnotations) {
+					n.desc = mapping.parseTypes(n.desc, true, false);
 				}
 			}
+		}
 
-			for(FieldNode fn : cn.fields) {
+		for(FieldNode fn : cn.fields) {
+			if(mapsFields) {
 				fn.name = mapping.getField(cn.name, fn.name, fn.desc);
-				fn.desc = mapping.mapTypeDescriptor(fn.desc);
-				fn.signature = mapping.parseTypes(fn.signature, true, false);
+			}
+			if(!mapsClasses) {
+				continue;
+			}
+			fn.desc = mapping.mapTypeDescriptor(fn.desc);
+			fn.signature = mapping.parseTypes(fn.signature, true, false);
 
-				if(fn.visibleAnnotations != null) {
-					for(AnnotationNode n : fn.visibleAnnotations) {
-						n.desc = mapping.parseTypes(n.desc, true, false);
-					}
+			if(fn.visibleAnnotations != null) {
+				for(AnnotationNode n : fn.visibleAnnotations) {
+					n.desc = mapping.parseTypes(n.desc, true, false);
 				}
-				if(fn.invisibleAnnotations != null) {
-					for(AnnotationNode n : fn.invisibleAnnotations) {
-						n.desc = mapping.parseTypes(n.desc, true, false);
-					}
+			}
+			if(fn.invisibleAnnotations != null) {
+				for(AnnotationNode n : fn.invisibleAnnotations) {
+					n.desc = mapping.parseTypes(n.desc, true, false);
 				}
 			}
+		}
 
+		if(mapsClasses) {
 			cn.name = mapping.getClass(cn.name);
 			cn.superName = mapping.getClass(cn.superName);
 
@@ -446,30 +541,117 @@ public class Remapper {
 					icn.outerName = mapping.getClass(icn.outerName);
 				}
 			}
+		}
 
-			if(cn.outerMethod != null) {
-				String[] resolved = resolveMethod(cn.outerClass, cn.outerMethod, cn.outerMethodDesc);
-				if(resolved != null) {
-					cn.outerMethod = mapping.getMethod(resolved[0], cn.outerMethod, resolved[1]);
-					cn.outerMethodDesc = mapping.mapMethodDescriptor(resolved[1]);
-				} else {
-					cn.outerMethod = mapping.getMethod(cn.outerClass, cn.outerMethod, cn.outerMethodDesc);
-					cn.outerMethodDesc = mapping.mapMethodDescriptor(cn.outerMethodDesc);
-				}
-			}
-			if(cn.outerClass != null) {
-				cn.outerClass = mapping.getClass(cn.outerClass);
-			}
+		if(cn.outerMethod != null) {
+			MappedMember mapped = mapMethod(cn.outerClass, cn.outerMethod, cn.outerMethodDesc);
+			cn.outerMethod = mapped.name;
+			cn.outerMethodDesc = mapped.desc;
 		}
+		if(cn.outerClass != null && mapsClasses) {
+			cn.outerClass = mapping.getClass(cn.outerClass);
+		}
+	}
 
-		return cc;
+	public static ClassCollection remap(ClassCollection classes, NameSet toNS, Collection<? extends IReferenceCollection> refs, IProgressListener progress) throws MappingUnavailableException {
+		return remap(classes, toNS, refs, progress, 1);
 	}
 
-	public static ClassCollection remap(ClassCollection classes, NameSet toNS, Collection<ClassCollection> refs, IProgressListener progress) throws MappingUnavailableException {
-		Remapper instance = new Remapper(MappingFactory.getMapping(classes.getNameSet(), toNS, null));
+	public static ClassCollection remap(ClassCollection classes, NameSet toNS, Collection<? extends IReferenceCollection> refs, IProgressListener progress, int threads) throws MappingUnavailableException {
+		Remapper instance = new Remapper(MappingFactory.getMapping(classes.getNameSet(), toNS, null), threads);
 		return instance.remap(classes, refs, progress);
 	}
 
+	/**
+	 * @see #remapInPlace(ClassCollection, Collection, IProgressListener)
+	 */
+	public static SkeletonCollection remap(SkeletonCollection classes, NameSet toNS, Collection<? extends IReferenceCollection> refs, IProgressListener progress) throws MappingUnavailableException {
+		Remapper instance = new Remapper(MappingFactory.getMapping(classes.getNameSet(), toNS, progress));
+		return instance.remap(classes, refs, progress);
+	}
+
+	public static ClassCollection remapInPlace(ClassCollection classes, NameSet toNS, Collection<? extends IReferenceCollection> refs, IProgressListener progress, int threads) throws MappingUnavailableException {
+		Remapper instance = new Remapper(MappingFactory.getMapping(classes.getNameSet(), toNS, null), threads);
+		return instance.remapInPlace(classes, refs, progress);
+	}
+
+	/**
+	 * Adds the exceptions the mapping declares for a method and maps all of them.
+	 * Note that name and desc are those of the already remapped method.
+	 */
+	List<String> mapExceptions(String owner, String name, String desc, Collection<String> declared) {
+		Set<String> exceptions = new HashSet<>(declared);
+		exceptions.addAll(mapping.getExceptions(owner, name, desc));
+
+		List<String> rv = new ArrayList<>(exceptions.size());
+		for(String s : exceptions) {
+			rv.add(mapping.getClass(s));
+		}
+		return rv;
+	}
+
+	Object mapConstant(Object cst) {
+		if(cst instanceof Type) {
+			return Type.getType(mapping.mapTypeDescriptor(((Type)cst).getDescriptor()));
+		}
+		return cst;
+	}
+
+	Object mapBootstrapArgument(Object arg) {
+		if(arg instanceof Type) {
+			return Type.getType(mapping.mapMethodDescriptor(((Type)arg).getDescriptor()));
+
+		} else if(arg instanceof Handle) {
+			Handle handle = (Handle)arg;
+			boolean isField = isFieldHandle(handle);
+			String handleOwner = mapping.getClass(handle.getOwner());
+			String handleName = isField ? mapping.getField(handle.getOwner(), handle.getName(), handle.getDesc()) : mapping.getMethod(handle.getOwner(), handle.getName(), handle.getDesc());
+			String handleDesc = isField ? mapping.mapTypeDescriptor(handle.getDesc()) : mapping.mapMethodDescriptor(handle.getDesc());
+			if(!handle.getOwner().equals(handleOwner) || !handle.getName().equals(handleName) || !handle.getDesc().equals(handleDesc)) {
+				return new Handle(handle.getTag(), handleOwner, handleName, handleDesc, handle.isInterface());
+			}
+		}
+		return arg;
+	}
+
+	static final class MappedMember {
+
+		final String owner;
+		final String name;
+		final String desc;
+
+		MappedMember(String owner, String name, String desc) {
+			this.owner = owner;
+			this.name = name;
+			this.desc = desc;
+		}
+
+	}
+
+	/**
+	 * Mapped members by owner, name and descriptor of the reference. Nested maps are used so that
+	 * a lookup does not need to build a key.
+	 */
+	private static final class MemberTable {
+
+		private final Map<String, Map<String, Map<String, MappedMember>>> owners = new ConcurrentHashMap<>();
+
+		MappedMember get(String owner, String name, String desc) {
+			Map<String, Map<String, MappedMember>> names = owners.get(owner);
+			if(names == null) return null;
+			Map<String, MappedMember> descs = names.get(name);
+			if(descs == null) return null;
+			return descs.get(desc);
+		}
+
+		void put(String owner, String name, String desc, MappedMember mapped) {
+			owners.computeIfAbsent(owner, k -> new ConcurrentHashMap<>())
+					.computeIfAbsent(name, k -> new ConcurrentHashMap<>())
+					.putIfAbsent(desc, mapped);
+		}
+
+	}
+
 	private static boolean isFieldHandle(Handle handle) {
 		return handle.getTag() == Opcodes.H_GETFIELD || handle.getTag() == Opcodes.H_GETSTATIC || handle.getTag() == Opcodes.H_PUTFIELD || handle.getTag() == Opcodes.H_PUTSTATIC;
 	}
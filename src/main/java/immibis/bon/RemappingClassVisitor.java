@@ -0,0 +1,183 @@
+package immibis.bon;
+
+import java.util.Arrays;
+import java.util.List;
+
+import immibis.bon.Remapper.MappedMember;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Visitor version of {@link Remapper#remap(ClassCollection, java.util.Collection, IProgressListener)}, used by {@link StreamingRemapper}.
+ * Every event is rewritten exactly like the tree remapper rewrites the corresponding node, so both produce the same classes.
+ */
+class RemappingClassVisitor extends ClassVisitor {
+
+	private final Remapper remapper;
+	private final Mapping mapping;
+	private String className; // original name of the visited class
+
+	RemappingClassVisitor(Remapper remapper, Mapping mapping, ClassVisitor cv) {
+		super(Opcodes.ASM5, cv);
+		this.remapper = remapper;
+		this.mapping = mapping;
+	}
+
+	@Override
+	public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+		className = name;
+
+		String[] mappedInterfaces = null;
+		if(interfaces != null) {
+			mappedInterfaces = new String[interfaces.length];
+			for(int k = 0; k < interfaces.length; k++) {
+				mappedInterfaces[k] = mapping.getClass(interfaces[k]);
+			}
+		}
+
+		super.visit(version, access, mapping.getClass(name), mapping.parseTypes(signature, true, false), mapping.getClass(superName), mappedInterfaces);
+	}
+
+	@Override
+	public void visitOuterClass(String owner, String name, String desc) {
+		if(name != null) {
+			MappedMember mapped = remapper.mapMethod(owner, name, desc);
+			name = mapped.name;
+			desc = mapped.desc;
+		}
+		super.visitOuterClass(owner == null ? null : mapping.getClass(owner), name, desc);
+	}
+
+	@Override
+	public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+		return super.visitAnnotation(mapping.parseTypes(desc, true, false), visible);
+	}
+
+	@Override
+	public void visitInnerClass(String name, String outerName, String innerName, int access) {
+		super.visitInnerClass(mapping.getClass(name), outerName == null ? null : mapping.getClass(outerName), innerName, access);
+	}
+
+	@Override
+	public FieldVisitor visitField(int access, String name, String desc, String signature, Object value) {
+		FieldVisitor fv = super.visitField(access, mapping.getField(className, name, desc), mapping.mapTypeDescriptor(desc), mapping.parseTypes(signature, true, false), value);
+		return fv == null ? null : new RemappingFieldVisitor(fv);
+	}
+
+	@Override
+	public MethodVisitor visitMethod(int access, String name, String desc, String signature, String[] exceptions) {
+		MappedMember mapped = remapper.mapMethod(className, name, desc);
+		List<String> declared = exceptions == null ? Arrays.<String>asList() : Arrays.asList(exceptions);
+		List<String> mappedExceptions = remapper.mapExceptions(className, mapped.name, mapped.desc, declared);
+
+		MethodVisitor mv = super.visitMethod(access, mapped.name, mapped.desc, mapping.parseTypes(signature, true, true), mappedExceptions.toArray(new String[mappedExceptions.size()]));
+		return mv == null ? null : new RemappingMethodVisitor(mv);
+	}
+
+	private class RemappingFieldVisitor extends FieldVisitor {
+
+		RemappingFieldVisitor(FieldVisitor fv) {
+			super(Opcodes.ASM5, fv);
+		}
+
+		@Override
+		public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+			return super.visitAnnotation(mapping.parseTypes(desc, true, false), visible);
+		}
+
+	}
+
+	private class RemappingMethodVisitor extends MethodVisitor {
+
+		RemappingMethodVisitor(MethodVisitor mv) {
+			super(Opcodes.ASM5, mv);
+		}
+
+		@Override
+		public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+			return super.visitAnnotation(mapping.parseTypes(desc, true, false), visible);
+		}
+
+		@Override
+		public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack) {
+			super.visitFrame(type, nLocal, mapFrameTypes(local, nLocal), nStack, mapFrameTypes(stack, nStack));
+		}
+
+		private Object[] mapFrameTypes(Object[] types, int count) {
+			if(types == null) {
+				return null;
+			}
+			Object[] rv = types.clone();
+			for(int k = 0; k < count; k++) {
+				if(rv[k] instanceof String) {
+					rv[k] = mapping.getClass((String)rv[k]);
+				}
+			}
+			return rv;
+		}
+
+		@Override
+		public void visitFieldInsn(int opcode, String owner, String name, String desc) {
+			MappedMember mapped = remapper.mapField(owner, name, desc);
+			super.visitFieldInsn(opcode, mapped.owner, mapped.name, mapped.desc);
+		}
+
+		@Override
+		public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf) {
+			MappedMember mapped = remapper.mapMethod(owner, name, desc);
+			super.visitMethodInsn(opcode, mapped.owner, mapped.name, mapped.desc, itf);
+		}
+
+		@Override
+		public void visitLdcInsn(Object cst) {
+			super.visitLdcInsn(remapper.mapConstant(cst));
+		}
+
+		@Override
+		public void visitTypeInsn(int opcode, String type) {
+			super.visitTypeInsn(opcode, mapping.getClass(type));
+		}
+
+		@Override
+		public void visitMultiANewArrayInsn(String desc, int dims) {
+			super.visitMultiANewArrayInsn(mapping.getClass(desc), dims);
+		}
+
+		@Override
+		public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs) {
+			Type returnType = Type.getReturnType(desc);
+			Type internalDesc = null;
+
+			Object[] mappedArgs = new Object[bsmArgs.length];
+			for(int i = 0; i < bsmArgs.length; i++) {
+				if(bsmArgs[i] instanceof Type && internalDesc == null) {
+					internalDesc = (Type)bsmArgs[i];
+				}
+				mappedArgs[i] = remapper.mapBootstrapArgument(bsmArgs[i]);
+			}
+
+			if(internalDesc != null) {
+				name = mapping.getMethod(returnType.getInternalName(), name, internalDesc.toString());
+			}
+			super.visitInvokeDynamicInsn(name, mapping.mapMethodDescriptor(desc), bsm, mappedArgs);
+		}
+
+		@Override
+		public void visitTryCatchBlock(Label start, Label end, Label handler, String type) {
+			super.visitTryCatchBlock(start, end, handler, type == null ? null : mapping.getClass(type));
+		}
+
+		@Override
+		public void visitLocalVariable(String name, String desc, String signature, Label start, Label end, int index) {
+			super.visitLocalVariable(name, mapping.mapTypeDescriptor(desc), signature, start, end, index);
+		}
+
+	}
+
+}
@@ -0,0 +1,29 @@
+package immibis.bon;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Reference classes loaded without their code, see {@link immibis.bon.io.ClassCollectionFactory#loadReferenceCollection}.
+ */
+public class SkeletonCollection implements IReferenceCollection {
+
+	private final NameSet nameSet;
+	private final Collection<ClassSkeleton> skeletons;
+
+	public SkeletonCollection(NameSet nameSet, Collection<ClassSkeleton> skeletons) {
+		this.nameSet = nameSet;
+		this.skeletons = new ArrayList<ClassSkeleton>(skeletons);
+	}
+
+	@Override
+	public NameSet getNameSet() {
+		return nameSet;
+	}
+
+	@Override
+	public Collection<ClassSkeleton> getSkeletons() {
+		return skeletons;
+	}
+
+}
@@ -0,0 +1,275 @@
+package immibis.bon;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.tree.ClassNode;
+
+/**
+ * Remaps class files without building a ClassNode tree for them: each class goes straight from
+ * ClassReader through a remapping visitor into a ClassWriter. Classes the mapping doesn't rename anything in
+ * start from the constant pool of the reader, which saves rebuilding it; all others get a new constant pool,
+ * so no old names are left in it. Either way every method goes through the remapping visitor, so all method
+ * bodies are encoded again. The output is the same as that of {@link Remapper}.
+ *
+ * Input and output collections hold class files as raw bytes in their extra files,
+ * see {@link immibis.bon.io.ClassCollectionFactory#loadRawClassCollection}.
+ */
+public class StreamingRemapper {
+
+	private final Mapping mapping;
+	private final Remapper remapper;
+	private final int threads;
+
+	public StreamingRemapper(Mapping mapping) {
+		this(mapping, 1);
+	}
+
+	/**
+	 * @param threads Number of threads used to remap classes. 1 remaps everything on the calling thread.
+	 */
+	public StreamingRemapper(Mapping mapping, int threads) {
+		this.mapping = mapping;
+		this.remapper = new Remapper(mapping);
+		this.threads = Math.max(1, threads);
+	}
+
+	public ClassCollection remap(ClassCollection cc, Collection<? extends IReferenceCollection> refs, IProgressListener progress) throws ClassFormatException {
+		// the hierarchy only needs names and members, so read the input classes without their code first
+		List<ClassSkeleton> skeletons = new ArrayList<>();
+		Map<String, ClassSkeleton> skeletonsByFile = new HashMap<>();
+		Map<String, String> strings = new HashMap<>();
+		for(Map.Entry<String, byte[]> e : cc.getExtraFiles().entrySet()) {
+			if(isClassFile(e.getKey())) {
+				ClassSkeleton cn;
+				try {
+					cn = ClassSkeleton.read(e.getValue(), strings);
+				} catch (ClassFormatException ex) {
+					throw new ClassFormatException("Unable to load class " + e.getKey(), ex);
+				}
+
+				if(!e.getKey().equals(cn.name + ".class")) {
+					throw new ClassFormatException("Class '" + cn.name + "' has wrong path: '" + e.getKey() + "'");
+				}
+
+				skeletons.add(cn);
+				skeletonsByFile.put(e.getKey(), cn);
+			}
+		}
+
+		remapper.prepare(cc.getNameSet(), skeletons, refs);
+
+		ClassCollection rv = new ClassCollection(mapping.toNS, Collections.<ClassNode>emptyList(), cc.getManifest());
+
+		if(progress != null) {
+			progress.setMax(cc.getExtraFiles().size());
+		}
+
+		// like in Remapper, the files are independent of each other once the class hierarchy is built
+		List<Map.Entry<String, byte[]>> files = new ArrayList<>(cc.getExtraFiles().entrySet());
+		int[] filesProcessed = {0}; // guarded by progress
+		List<Callable<Map.Entry<String, byte[]>>> tasks = new ArrayList<>(files.size());
+		for(Map.Entry<String, byte[]> e : files) {
+			tasks.add(() -> {
+				// counted under the lock, so the values reach the listener in order
+				if(progress != null) {
+					synchronized(progress) {
+						progress.set(filesProcessed[0]++);
+					}
+				}
+				return remapFile(e, skeletonsByFile.get(e.getKey()));
+			});
+		}
+
+		for(Map.Entry<String, byte[]> e : run(tasks)) {
+			rv.getExtraFiles().put(e.getKey(), e.getValue());
+		}
+
+		return rv;
+	}
+
+	/**
+	 * @return The new name and contents of the file
+	 */
+	private Map.Entry<String, byte[]> remapFile(Map.Entry<String, byte[]> e, ClassSkeleton cs) {
+		if(!isClassFile(e.getKey())) {
+			return e;
+		}
+
+		ClassReader reader = new ClassReader(e.getValue());
+		// a copied constant pool would keep every renamed entry, so it's only reused if nothing is renamed
+		ClassWriter writer = isUnchanged(reader, cs) ? new ClassWriter(reader, 0) : new ClassWriter(0);
+		reader.accept(new RemappingClassVisitor(remapper, mapping, writer), 0);
+
+		return new AbstractMap.SimpleImmutableEntry<>(mapping.getClass(reader.getClassName()) + ".class", writer.toByteArray());
+	}
+
+	/**
+	 * Runs the tasks on the calling thread, or on a private fork-join pool if there is more than one thread.
+	 *
+	 * @return The results, in the same order as the tasks
+	 */
+	private <T> List<T> run(List<Callable<T>> tasks) {
+		List<T> rv = new ArrayList<>(tasks.size());
+		if(threads == 1 || tasks.size() < 2) {
+			for(Callable<T> task : tasks) {
+				try {
+					rv.add(task.call());
+				} catch (RuntimeException e) {
+					throw e;
+				} catch (Exception e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return rv;
+		}
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			for(Future<T> future : pool.invokeAll(tasks)) {
+				rv.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while remapping", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			if(e.getCause() instanceof Error) {
+				throw (Error)e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+		return rv;
+	}
+
+	/**
+	 * Checks the names in the constant pool and the declared members of a class against the mapping.
+	 * Errs on the side of false: strings that only look like descriptors, and constants this can't
+	 * check (method handles, invokedynamic), count as changed.
+	 *
+	 * @return True if remapping the class doesn't rename anything in it
+	 */
+	private boolean isUnchanged(ClassReader reader, ClassSkeleton cs) {
+		for(int k = 0; k < cs.getFieldCount(); k++) {
+			if(!mapping.getField(cs.name, cs.getFieldName(k), cs.getFieldDesc(k)).equals(cs.getFieldName(k))) {
+				return false;
+			}
+		}
+		for(int k = 0; k < cs.getMethodCount(); k++) {
+			if(!remapper.mapMethod(cs.name, cs.getMethodName(k), cs.getMethodDesc(k)).name.equals(cs.getMethodName(k))) {
+				return false;
+			}
+		}
+
+		char[] buf = new char[reader.getMaxStringLength()];
+		for(int k = 1; k < reader.getItemCount(); k++) {
+			int pos = reader.getItem(k);
+			if(pos == 0) {
+				continue; // second slot of a long or double
+			}
+			switch(reader.b[pos - 1]) {
+				case UTF8:
+					if(!isUnchangedString(readUTF8Item(reader, pos, buf))) {
+						return false;
+					}
+					break;
+
+				case CLASS: {
+					String name = reader.readUTF8(pos, buf);
+					if(!mapping.getClass(name).equals(name)) {
+						return false;
+					}
+					break;
+				}
+
+				case FIELD:
+				case METHOD:
+				case INTERFACE_METHOD: {
+					// the descriptor and owner are checked with the UTF8 and CLASS constants
+					String owner = reader.readClass(pos, buf);
+					int nameAndType = reader.getItem(reader.readUnsignedShort(pos + 2));
+					String name = reader.readUTF8(nameAndType, buf), desc = reader.readUTF8(nameAndType + 2, buf);
+					Remapper.MappedMember mapped = reader.b[pos - 1] == FIELD ? remapper.mapField(owner, name, desc) : remapper.mapMethod(owner, name, desc);
+					if(!mapped.owner.equals(owner) || !mapped.name.equals(name)) {
+						return false;
+					}
+					break;
+				}
+
+				case METHOD_HANDLE:
+				case INVOKE_DYNAMIC:
+					return false;
+			}
+		}
+		return true;
+	}
+
+	private static final int UTF8 = 1, CLASS = 7, FIELD = 9, METHOD = 10, INTERFACE_METHOD = 11, METHOD_HANDLE = 15, INVOKE_DYNAMIC = 18;
+
+	/**
+	 * Descriptors and signatures name classes as L...; with the name ending at ';', '<' or '.'.
+	 * Every such name in the string must map to itself.
+	 */
+	private boolean isUnchangedString(String s) {
+		if(s.indexOf(';') < 0) {
+			return true;
+		}
+		int start = s.indexOf('L');
+		while(start >= 0) {
+			int end = start + 1;
+			while(end < s.length() && s.charAt(end) != ';' && s.charAt(end) != '<' && s.charAt(end) != '.') {
+				end++;
+			}
+			if(end == s.length()) {
+				break;
+			}
+			String name = s.substring(start + 1, end);
+			if(name.isEmpty() || name.indexOf('[') >= 0 || name.indexOf('(') >= 0 || name.indexOf(')') >= 0 || !mapping.getClass(name).equals(name)) {
+				return false;
+			}
+			start = s.indexOf('L', end);
+		}
+		// inner classes of generic classes are named by their simple name only, those aren't checked
+		return s.indexOf('.') < 0;
+	}
+
+	/**
+	 * ClassReader only reads UTF8 constants through an index pointing at them, this reads one by its position.
+	 */
+	private static String readUTF8Item(ClassReader reader, int pos, char[] buf) {
+		int length = reader.readUnsignedShort(pos);
+		int end = pos + 2 + length;
+		int chars = 0;
+		for(int k = pos + 2; k < end; ) {
+			int c = reader.b[k++] & 0xFF;
+			if(c < 0x80) {
+				buf[chars++] = (char)c;
+			} else if(c < 0xE0) {
+				buf[chars++] = (char)(((c & 0x1F) << 6) | (reader.b[k++] & 0x3F));
+			} else {
+				buf[chars++] = (char)(((c & 0x0F) << 12) | ((reader.b[k++] & 0x3F) << 6) | (reader.b[k++] & 0x3F));
+			}
+		}
+		return new String(buf, 0, chars);
+	}
+
+	private static boolean isClassFile(String name) {
+		return name.endsWith(".class");
+	}
+
+}
@@ -0,0 +1,123 @@
+package immibis.bon;
+
+import java.util.Arrays;
+
+/**
+ * Gives every distinct name or descriptor a small int id, so mappings can be keyed by ids
+ * instead of concatenated strings. Several mappings can share one table, equal strings are then only kept once.
+ *
+ * Interning is synchronized, but lookups are not: they may only run concurrently once nothing
+ * is interned any more, which is the case for frozen mappings.
+ */
+public class SymbolTable {
+
+	/** Ids have to fit in 21 bits, so three of them fit in one long key. */
+	public static final int MAX_SYMBOLS = 1 << 21;
+
+	private String[] keys = new String[1024];
+	private int[] ids = new int[1024];
+	private String[] names = new String[512];
+	private int size;
+
+	/**
+	 * @return The id of the string, or -1 if it was never interned
+	 */
+	public int get(String s) {
+		if(s == null) {
+			return -1;
+		}
+		String[] keys = this.keys;
+		int mask = keys.length - 1;
+		for(int k = hash(s) & mask;; k = (k + 1) & mask) {
+			String key = keys[k];
+			if(key == null) {
+				return -1;
+			}
+			if(key == s || key.equals(s)) {
+				return ids[k];
+			}
+		}
+	}
+
+	public synchronized int intern(String s) {
+		int mask = keys.length - 1;
+		int k = hash(s) & mask;
+		for(;; k = (k + 1) & mask) {
+			String key = keys[k];
+			if(key == null) {
+				break;
+			}
+			if(key.equals(s)) {
+				return ids[k];
+			}
+		}
+
+		if(size == MAX_SYMBOLS) {
+			throw new IllegalStateException("Too many symbols");
+		}
+		if(size == names.length) {
+			names = Arrays.copyOf(names, size * 2);
+		}
+		int id = size++;
+		names[id] = s;
+		ids[k] = id;
+		keys[k] = s;
+
+		if(size * 2 > keys.length) {
+			rehash();
+		}
+		return id;
+	}
+
+	private void rehash() {
+		String[] newKeys = new String[keys.length * 2];
+		int[] newIds = new int[newKeys.length];
+		int mask = newKeys.length - 1;
+		for(int id = 0; id < size; id++) {
+			int k = hash(names[id]) & mask;
+			while(newKeys[k] != null) {
+				k = (k + 1) & mask;
+			}
+			newKeys[k] = names[id];
+			newIds[k] = id;
+		}
+		ids = newIds;
+		keys = newKeys;
+	}
+
+	public String getName(int id) {
+		return names[id];
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return Roughly the number of heap bytes used by the table and its strings
+	 */
+	public long estimateSize() {
+		long rv = keys.length * 8L + names.length * 4L;
+		for(int k = 0; k < size; k++) {
+			rv += 40 + names[k].length() * 2L;
+		}
+		return rv;
+	}
+
+	/**
+	 * Packs up to three ids into one key for {@link LongIntHashMap}.
+	 */
+	public static long key(int a, int b, int c) {
+		return ((long)a << 42) | ((long)b << 21) | c;
+	}
+
+	public static int getKeyPart(long key, int part) {
+		return (int)(key >>> (42 - part * 21)) & (MAX_SYMBOLS - 1);
+	}
+
+	private static int hash(String s) {
+		int h = s.hashCode() * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+}
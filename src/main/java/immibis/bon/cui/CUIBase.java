@@ -108,6 +108,15 @@ public abstract class CUIBase {
 				val = ensureNext(args, k, opt, val);
 				((List<String>)f.get(this)).add(val);
 
+			} else if(f.getType() == int.class) {
+				val = ensureNext(args, k, opt, val);
+				try {
+					f.setInt(this, Integer.parseInt(val));
+				} catch (NumberFormatException e) {
+					System.err.println("Invalid number for " + opt + ": " + val);
+					ok = false;
+				}
+
 			} else if(f.getType() == boolean.class) {
 				f.setBoolean(this, !f.getBoolean(this));
 
@@ -2,8 +2,11 @@ package immibis.bon.cui;
 
 import immibis.bon.AccessTransformer;
 import immibis.bon.ClassCollection;
+import immibis.bon.IReferenceCollection;
 import immibis.bon.NameSet;
 import immibis.bon.Remapper;
+import immibis.bon.SkeletonCollection;
+import immibis.bon.StreamingRemapper;
 import immibis.bon.io.ClassCollectionFactory;
 import immibis.bon.io.JarWriter;
 import immibis.bon.io.MappingFactory;
@@ -47,27 +50,46 @@ public class MCPRemap extends CUIBase {
 		NameSet inputNS = new NameSet(fromType, side, mcVer);
 		NameSet outputNS = new NameSet(toType, side, mcVer);
 
-		List<ClassCollection> refs = new ArrayList<ClassCollection>();
+		List<SkeletonCollection> refs = new ArrayList<SkeletonCollection>();
 		for(RefOption ro : refOptsParsed) {
 			NameSet refNS = new NameSet(ro.type, side, mcVer);
 
 			if(!quiet) {
 				System.out.println("Loading " + ro.file.getName());
 			}
-			ClassCollection refCC = ClassCollectionFactory.loadClassCollection(refNS, ro.file, null);
+			SkeletonCollection refCC = ClassCollectionFactory.loadReferenceCollection(refNS, ro.file);
 			readTime += timer.flip();
 
 			if(!refNS.equals(inputNS)) {
 				if(!quiet) {
 					System.out.println("Remapping " + ro.file.getName() + " (" + refNS + " -> " + inputNS + ")");
 				}
-				refCC = Remapper.remap(refCC, inputNS, Collections.<ClassCollection>emptyList(), null);
+				refCC = Remapper.remap(refCC, inputNS, Collections.<IReferenceCollection>emptyList(), null);
 				remapTime += timer.flip();
 			}
 
 			refs.add(refCC);
 		}
 
+		if(stream) {
+			if(!quiet) {
+				System.out.println("Loading " + inFile.getName());
+			}
+			ClassCollection inputCC = ClassCollectionFactory.loadRawClassCollection(inputNS, inFile);
+			readTime += timer.flip();
+
+			System.out.println("Remapping " + inFile.getName() + " (" + inputNS + " -> " + outputNS + ")");
+			ClassCollection outputCC = new StreamingRemapper(MappingFactory.getMapping(inputNS, outputNS, null), threads).remap(inputCC, refs, null);
+			remapTime += timer.flip();
+
+			System.out.println("Writing " + outFile.getName());
+			JarWriter.write(outFile, outputCC, keepManifest, null);
+			writeTime += timer.flip();
+
+			printTimes(readTime, remapTime, transformTime, writeTime);
+			return;
+		}
+
 		if(!quiet) {
 			System.out.println("Loading " + inFile.getName());
 		}
@@ -77,17 +99,21 @@ public class MCPRemap extends CUIBase {
 		if(!quiet) {
 			System.out.println("Applying AccessTransformers");
 		}
-		inputCC = AccessTransformer.remap(inputCC, refs, null);
+		inputCC = AccessTransformer.remapInPlace(inputCC, refs, null);
 		transformTime += timer.flip();
 
 		System.out.println("Remapping " + inFile.getName() + " (" + inputNS + " -> " + outputNS + ")");
-		ClassCollection outputCC = Remapper.remap(inputCC, outputNS, refs, null);
+		ClassCollection outputCC = Remapper.remapInPlace(inputCC, outputNS, refs, null, threads);
 		remapTime += timer.flip();
 
 		System.out.println("Writing " + outFile.getName());
 		JarWriter.write(outFile, outputCC, keepManifest, null);
 		writeTime += timer.flip();
 
+		printTimes(readTime, remapTime, transformTime, writeTime);
+	}
+
+	private void printTimes(int readTime, int remapTime, int transformTime, int writeTime) {
 		if(!quiet) {
 			System.out.printf("Completed in %d ms (%dms read, %dms remap, %dms AT, %dms write)\n", readTime + remapTime + transformTime + writeTime,
 					readTime, remapTime, transformTime, writeTime);
@@ -125,6 +151,12 @@ public class MCPRemap extends CUIBase {
 	public boolean quiet = false;
 	@Option("-m")
 	public boolean keepManifest = false;
+	@Option("-threads")
+	public int threads = Runtime.getRuntime().availableProcessors();
+	@Option("-stream")
+	public boolean stream = false;
+	@Option("-cache")
+	public File cacheDir;
 
 	private static class RefOption {
 
@@ -149,6 +181,8 @@ public class MCPRemap extends CUIBase {
 		}
 
 		MappingFactory.quiet = quiet;
+		ClassCollectionFactory.cacheDir = cacheDir;
+		ClassCollectionFactory.pruneCache();
 
 		boolean ok = true;
 
@@ -248,6 +282,11 @@ public class MCPRemap extends CUIBase {
 			}
 		}
 
+		if(stream && !atOpts.isEmpty()) {
+			System.err.println("-stream can't be combined with -at");
+			ok = false;
+		}
+
 		for(RefOption ro : refOptsParsed) {
 			if(!ro.file.exists()) {
 				System.err.println("Reference file doesn't exist: " + ro.file.getAbsolutePath());
@@ -278,7 +317,7 @@ public class MCPRemap extends CUIBase {
 		System.out.println("");
 		System.out.println("Required options:");
 		System.out.println("  -mcp <mcp dir>");
-		System.out.println("       Specifies the path to the MCP directory.");
+		System.out.println("       Specifies the path to the MCP directory, or to an MCP zip archive.");
 		System.out.println("  -from <source names>");
 		System.out.println("       Specifies the type of names the input file will uses.");
 		System.out.println("       Can be OBF or SRG or MCP.");
@@ -318,12 +357,26 @@ public class MCPRemap extends CUIBase {
 		System.out.println("       You can also pass individual files to this option. You may specify multiple using the");
 		System.out.println("       path separator character (; on windows, : on *nix) on your OS, or multiple options.");
 		System.out.println("");
+		System.out.println("  -cache <dir>");
+		System.out.println("       Keeps the class hierarchy of reference jars and the compiled MCP mappings in <dir>,");
+		System.out.println("       so that unchanged reference jars and MCP files don't have to be read again on the next run.");
+		System.out.println("       Files that weren't used for 30 days are deleted.");
+		System.out.println("");
 		System.out.println("  -m");
 		System.out.println("       Will ensure the manifest file (when remapping a jar) will be kept in the generated output jar.");
 		System.out.println("");
 		System.out.println("  -q");
 		System.out.println("       Will minimize the output of BON to the console.");
 		System.out.println("");
+		System.out.println("  -stream");
+		System.out.println("       Remaps the input class by class without building a tree of each class in memory.");
+		System.out.println("       The class files are still all read into memory first, and each is parsed twice.");
+		System.out.println("       Uses less memory on large jars, but can't be combined with -at.");
+		System.out.println("");
+		System.out.println("  -threads <count>");
+		System.out.println("       Number of threads used for remapping. Defaults to the number of available processors.");
+		System.out.println("       Use 1 to remap on a single thread.");
+		System.out.println("");
 		System.out.println("Example command line:");
 		System.out.println("  -mcp . -from OBF -to MCP -side UNIVERSAL -in RedPowerDigital.zip -out RedPowerDigital-deobf.zip -ref RedPowerCore.zip -refn MCP:bin/minecraft");
 		System.out.println("       Deobfuscates RedPowerDigital.zip, saving the result in RedPowerDigital-deobf.zip.");
@@ -335,8 +388,8 @@ public class MCPRemap extends CUIBase {
 		System.out.println("       The current directory contains an MCP installation.");
 		System.out.println("");
 		System.out.println("Note: If deobfuscating, you need to know if the input file is using SRG or OBF names.");
-		System.out.println("The GUI gets around this by remapping twice, once with '-from OBF -to SRG', and then with '-from SRG -to MCP',");
-		System.out.println("which is slower.");
+		System.out.println("'-from OBF -to MCP' remaps in a single pass; use '-from SRG -to MCP' for files that use SRG names.");
+		System.out.println("The GUI has the separate operation 'Deobfuscate mod from SRG' for those.");
 		System.out.println("");
 		System.out.println("Note: Automatic remapping of reference files may not work correctly if the reference file itself needs");
 		System.out.println("reference files to remap correctly. (E.g. if RPDigital.zip requires RPCore.zip which requires bin/minecraft)");
@@ -23,8 +23,10 @@ import java.util.prefs.Preferences;
 import javax.swing.*;
 import immibis.bon.ClassCollection;
 import immibis.bon.IProgressListener;
+import immibis.bon.IReferenceCollection;
 import immibis.bon.NameSet;
 import immibis.bon.Remapper;
+import immibis.bon.SkeletonCollection;
 import immibis.bon.cui.MCPRemap;
 import immibis.bon.io.ClassCollectionFactory;
 import immibis.bon.io.JarWriter;
@@ -162,42 +164,52 @@ public class GuiMain extends JFrame {
 					};
 
 					String mcVer = MappingLoader_MCP.getMCVer(mcpDir);
+					int threads = Runtime.getRuntime().availableProcessors();
+					// off unless started with -Dbon.cacheDir=<dir>, like the -cache option of the command line
+					String cacheDir = System.getProperty("bon.cacheDir");
+					ClassCollectionFactory.cacheDir = cacheDir == null || cacheDir.isEmpty() ? null : new File(cacheDir);
+					ClassCollectionFactory.pruneCache();
 
 					NameSet refNS = new NameSet(NameSet.Type.MCP, side.nsside, mcVer);
-					Map<String, ClassCollection> refCCList = new HashMap<>();
+					Map<String, SkeletonCollection> refCCList = new HashMap<>();
 
 					for(String s : refPathList) {
 						File refPathFile = new File(mcpDir, s);
 
 						progress.start(0, "Reading " + s);
-						refCCList.put(s, ClassCollectionFactory.loadClassCollection(refNS, refPathFile, progress));
+						refCCList.put(s, ClassCollectionFactory.loadReferenceCollection(refNS, refPathFile));
 
 						//progress.start(0, "Remapping "+s);
 						//refs.add(Remapper.remap(mcpRefCC, inputNS, Collections.<ClassCollection>emptyList(), progress));
 					}
 
-					NameSet.Type[] remapTo;
+					NameSet.Type outputType;
 					NameSet.Type inputType;
 
 					switch(op) {
 						case DEOBFUSCATE_MOD:
 							inputType = NameSet.Type.OBF;
-							remapTo = new NameSet.Type[]{NameSet.Type.SRG, NameSet.Type.MCP};
+							outputType = NameSet.Type.MCP;
+							break;
+
+						case DEOBFUSCATE_SRG_MOD:
+							inputType = NameSet.Type.SRG;
+							outputType = NameSet.Type.MCP;
 							break;
 
 						case REOBFUSCATE_MOD:
 							inputType = NameSet.Type.MCP;
-							remapTo = new NameSet.Type[]{NameSet.Type.OBF};
+							outputType = NameSet.Type.OBF;
 							break;
 
 						case SRGIFY_MOD:
 							inputType = NameSet.Type.OBF;
-							remapTo = new NameSet.Type[]{NameSet.Type.SRG};
+							outputType = NameSet.Type.SRG;
 							break;
 
 						case REOBFUSCATE_MOD_SRG:
 							inputType = NameSet.Type.MCP;
-							remapTo = new NameSet.Type[]{NameSet.Type.SRG};
+							outputType = NameSet.Type.SRG;
 							break;
 
 						default:
@@ -205,6 +217,7 @@ public class GuiMain extends JFrame {
 					}
 
 					NameSet inputNS = new NameSet(inputType, side.nsside, mcVer);
+					NameSet outputNS = new NameSet(outputType, side.nsside, mcVer);
 
 					progress.start(0, "Reading " + inputFile.getName());
 					ClassCollection inputCC = ClassCollectionFactory.loadClassCollection(inputNS, inputFile, progress);
@@ -214,38 +227,36 @@ public class GuiMain extends JFrame {
 
 					// For deobfuscation:
 					/*                       MCP reference
-					 *                       |           |
-					 *                       |           |
-					 *                       |           |
-					 *                       V           V
-					 *             OBF reference       SRG reference
-					 *                 |                     |
-					 *                 |                     |
-					 *                 V                     V
-					 * OBF input -----------> SRG input -----------> MCP input (output file)
+					 *                           |
+					 *                           |
+					 *                           V
+					 *                  OBF (or SRG) reference
+					 *                           |
+					 *                           |
+					 *                           V
+					 * OBF (or SRG) input -----------------> MCP input (output file)
 					 */
-					// remap to obf names from searge names, then searge names to MCP names, in two steps
-					// the first will be a no-op if the mod uses searge names already
-					for(NameSet.Type outputType : remapTo) {
-						NameSet outputNS = new NameSet(outputType, side.nsside, mcVer);
+					// mods that already use searge names are deobfuscated with DEOBFUSCATE_SRG_MOD,
+					// so their inheritance is resolved in SRG names
 
-						List<ClassCollection> remappedRefs = new ArrayList<>();
-						for(Map.Entry<String, ClassCollection> e : refCCList.entrySet()) {
+					List<SkeletonCollection> remappedRefs = new ArrayList<>();
+					for(Map.Entry<String, SkeletonCollection> e : refCCList.entrySet()) {
 
-							if(inputCC.getNameSet().equals(e.getValue().getNameSet())) {
-								// no need to remap this
-								remappedRefs.add(e.getValue());
+						if(inputCC.getNameSet().equals(e.getValue().getNameSet())) {
+							// no need to remap this
+							remappedRefs.add(e.getValue());
 
-							} else {
-								progress.start(0, "Remapping " + e.getKey() + " to " + outputType + " names");
-								remappedRefs.add(Remapper.remap(e.getValue(), inputCC.getNameSet(), Collections.emptyList(), progress));
-							}
+						} else {
+							progress.start(0, "Remapping " + e.getKey() + " to " + inputCC.getNameSet().type + " names");
+							remappedRefs.add(Remapper.remap(e.getValue(), inputCC.getNameSet(), Collections.<IReferenceCollection>emptyList(), progress));
 						}
-
-						progress.start(0, "Remapping " + inputFile.getName() + " to " + outputType + " names");
-						inputCC = Remapper.remap(inputCC, outputNS, remappedRefs, progress);
 					}
 
+					// one pass with the composed mapping, even when going from OBF to MCP names
+					progress.start(0, "Remapping " + inputFile.getName() + " to " + outputType + " names");
+					// the loaded input isn't needed after this, so it doesn't have to be copied
+					inputCC = Remapper.remapInPlace(inputCC, outputNS, remappedRefs, progress, threads);
+
 					progress.start(0, "Writing " + outputFile.getName());
 					JarWriter.write(outputFile, inputCC, progress);
 
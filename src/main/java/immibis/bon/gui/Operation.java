@@ -3,6 +3,7 @@ package immibis.bon.gui;
 public enum Operation {
 
 	DEOBFUSCATE_MOD("Deobfuscate mod", "deobf"),
+	DEOBFUSCATE_SRG_MOD("Deobfuscate mod from SRG", "deobf"),
 	REOBFUSCATE_MOD("Reobfuscate mod", "reobf"),
 	REOBFUSCATE_MOD_SRG("Reobfuscate mod to SRG", "srg"),
 	SRGIFY_MOD("Deobfuscate mod to SRG", "srg");
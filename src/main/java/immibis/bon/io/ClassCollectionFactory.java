@@ -2,19 +2,34 @@ package immibis.bon.io;
 
 import immibis.bon.ClassCollection;
 import immibis.bon.ClassFormatException;
+import immibis.bon.ClassSkeleton;
 import immibis.bon.IProgressListener;
 import immibis.bon.NameSet;
+import immibis.bon.SkeletonCollection;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.objectweb.asm.tree.ClassNode;
 
 public class ClassCollectionFactory {
 
+	/**
+	 * Directory for cached reference skeletons and compiled MCP mappings, see {@link SkeletonCache} and {@link MappingCompiler}. Null disables the cache.
+	 */
+	public static File cacheDir = null;
+
+	/**
+	 * Files in the cache directory that weren't used for this long are deleted by {@link #pruneCache()}.
+	 */
+	public static long cacheMaxAge = 30L * 24 * 60 * 60 * 1000;
+
 	public static ClassCollection loadClassCollection(NameSet ns, File from, IProgressListener progress) throws IOException, ClassFormatException {
 		if(from.isDirectory()) {
 			Collection<ClassNode> classes = new ArrayList<ClassNode>();
@@ -25,6 +40,95 @@ public class ClassCollectionFactory {
 		}
 	}
 
+	/**
+	 * Loads classes for use as references only. The code of the classes is skipped and just the
+	 * names and members are kept, which takes a small part of the memory of a ClassCollection.
+	 */
+	public static SkeletonCollection loadReferenceCollection(NameSet ns, File from) throws IOException, ClassFormatException {
+		if(cacheDir != null) {
+			return new SkeletonCache(cacheDir).load(ns, from);
+		} else if(from.isDirectory()) {
+			return loadReferencesFromDir(ns, from);
+		} else {
+			return JarLoader.loadReferencesFromJar(ns, from);
+		}
+	}
+
+	static SkeletonCollection loadReferencesFromDir(NameSet ns, File dir) throws IOException, ClassFormatException {
+		ClassCollection raw = loadRawClassCollection(ns, dir);
+		Collection<ClassSkeleton> classes = new ArrayList<ClassSkeleton>();
+		Map<String, String> strings = new HashMap<String, String>();
+		for(Map.Entry<String, byte[]> e : raw.getExtraFiles().entrySet()) {
+			ClassSkeleton cs = ClassSkeleton.read(e.getValue(), strings);
+			if(!e.getKey().equals(cs.name + ".class")) {
+				throw new ClassFormatException("Class '" + cs.name + "' has wrong path in folder: '" + e.getKey() + "'");
+			}
+			classes.add(cs);
+		}
+		return new SkeletonCollection(ns, classes);
+	}
+
+	/**
+	 * Records that a file in the cache directory was used, so {@link #pruneCache()} keeps it.
+	 * The modification time is only updated once a day, to avoid a write on every run.
+	 */
+	public static void markCacheFileUsed(File file) {
+		long now = System.currentTimeMillis();
+		if(now - file.lastModified() > 24L * 60 * 60 * 1000) {
+			file.setLastModified(now);
+		}
+	}
+
+	/**
+	 * Deletes the cache files that weren't used for {@link #cacheMaxAge}, such as those of old
+	 * reference jars or MCP versions. Does nothing without a cache directory.
+	 */
+	public static void pruneCache() {
+		File[] files = cacheDir == null ? null : cacheDir.listFiles();
+		if(files == null) {
+			return;
+		}
+		long oldest = System.currentTimeMillis() - cacheMaxAge;
+		for(File f : files) {
+			String name = f.getName();
+			if((name.endsWith(".skel") || name.endsWith(".bonmap") || name.endsWith(".tmp")) && f.isFile() && f.lastModified() < oldest) {
+				f.delete();
+			}
+		}
+	}
+
+	/**
+	 * Loads classes without parsing them, for {@link immibis.bon.StreamingRemapper}.
+	 * Class files are kept as raw bytes in the extra files of the collection.
+	 */
+	public static ClassCollection loadRawClassCollection(NameSet ns, File from) throws IOException, ClassFormatException {
+		if(from.isDirectory()) {
+			ClassCollection cc = new ClassCollection(ns, Collections.<ClassNode>emptyList(), null);
+			loadRawFromDir("", from, cc.getExtraFiles());
+			return cc;
+		} else {
+			return JarLoader.loadRawJar(ns, from);
+		}
+	}
+
+	private static void loadRawFromDir(String prefix, File dir, Map<String, byte[]> result) throws IOException {
+		if(dir.isDirectory()) {
+
+			if(!prefix.equals("")) {
+				prefix += "/";
+			}
+
+			for(String fn : dir.list()) {
+				loadRawFromDir(prefix + fn, new File(dir, fn), result);
+			}
+
+		} else if(prefix.endsWith(".class")) {
+			try(FileInputStream in = new FileInputStream(dir)) {
+				result.put(prefix, IOUtils.readStreamFully(in));
+			}
+		}
+	}
+
 	private static void loadFromDir(String prefix, File dir, Collection<ClassNode> result) throws IOException, ClassFormatException {
 		if(dir.isDirectory()) {
 
@@ -2,72 +2,199 @@ package immibis.bon.io;
 
 import immibis.bon.ClassCollection;
 import immibis.bon.ClassFormatException;
+import immibis.bon.ClassSkeleton;
 import immibis.bon.IProgressListener;
 import immibis.bon.NameSet;
+import immibis.bon.SkeletonCollection;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.jar.JarEntry;
-import java.util.jar.JarInputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.jar.JarFile;
 import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.objectweb.asm.tree.ClassNode;
 
+/**
+ * Jars are read through their central directory, so the entries are known up front. They are then
+ * inflated and parsed on the common fork-join pool, and collected in the order of the jar.
+ */
 public class JarLoader {
 
-	private static final boolean VERIFY_SIGNATURES = false;
-
 	public static ClassCollection loadClassesFromJar(NameSet nameSet, File jarFile, IProgressListener progress) throws IOException, ClassFormatException {
-		Collection<ClassNode> classes = new ArrayList<ClassNode>();
-		Map<String, byte[]> extraFiles = new HashMap<String, byte[]>();
-		Manifest manifest = null;
+		return loadJar(nameSet, jarFile, false, progress);
+	}
 
-		JarInputStream j_in = null;
-		try {
-			j_in = new JarInputStream(new FileInputStream(jarFile), VERIFY_SIGNATURES);
-			JarEntry entry;
+	/**
+	 * Loads a jar without parsing the class files, they are kept as raw bytes in the extra files.
+	 */
+	public static ClassCollection loadRawJar(NameSet nameSet, File jarFile) throws IOException, ClassFormatException {
+		return loadJar(nameSet, jarFile, true, null);
+	}
 
-			while((entry = j_in.getNextJarEntry()) != null) {
+	/**
+	 * Loads only the skeletons of the classes in a jar, for use as references.
+	 */
+	public static SkeletonCollection loadReferencesFromJar(NameSet nameSet, File jarFile) throws IOException, ClassFormatException {
+		final Map<String, String> strings = new ConcurrentHashMap<String, String>();
+
+		try(ZipFile zip = new ZipFile(jarFile)) {
+			List<ZipEntry> entries = new ArrayList<ZipEntry>();
+			for(ZipEntry entry : Collections.list(zip.entries())) {
+				if(!entry.isDirectory() && entry.getName().endsWith(".class")) {
+					entries.add(entry);
+				}
+			}
 
-				if(entry.isDirectory()) {
+			List<ClassSkeleton> classes = readEntries(zip, jarFile, entries, (name, data) -> {
+				ClassSkeleton cs = ClassSkeleton.read(data, strings);
+
+				if(!name.equals(cs.name + ".class")) {
+					throw new ClassFormatException("Class '" + cs.name + "' has wrong path in jar file: '" + name + "'");
+				}
+				return cs;
+			}, null, null);
+
+			return new SkeletonCollection(nameSet, classes);
+		}
+	}
+
+	private static ClassCollection loadJar(NameSet nameSet, File jarFile, boolean raw, IProgressListener progress) throws IOException, ClassFormatException {
+		try(ZipFile zip = new ZipFile(jarFile)) {
+			List<? extends ZipEntry> allEntries = Collections.list(zip.entries());
+			ZipEntry manifestEntry = findManifest(allEntries);
+
+			List<ZipEntry> classEntries = new ArrayList<ZipEntry>(allEntries.size());
+			List<ZipEntry> extraEntries = new ArrayList<ZipEntry>();
+			for(ZipEntry entry : allEntries) {
+				if(entry.isDirectory() || entry == manifestEntry) {
 					continue;
 				}
+				if(entry.getName().endsWith(".class") && !raw) {
+					classEntries.add(entry);
+				} else {
+					extraEntries.add(entry);
+				}
+			}
 
-				String name = entry.getName();
+			if(progress != null) {
+				progress.setMax(classEntries.size() + extraEntries.size());
+				progress.set(0);
+			}
+			int[] entriesRead = {0}; // guarded by progress
 
-				if(name.endsWith(".class")) {
-					try {
-						ClassNode cn = IOUtils.readClass(IOUtils.readStreamFully(j_in));
+			List<ClassNode> classes = readEntries(zip, jarFile, classEntries, (name, data) -> {
+				ClassNode cn = IOUtils.readClass(data);
 
-						if(!name.equals(cn.name + ".class")) {
-							throw new ClassFormatException("Class '" + cn.name + "' has wrong path in jar file: '" + name + "'");
-						}
+				if(!name.equals(cn.name + ".class")) {
+					throw new ClassFormatException("Class '" + cn.name + "' has wrong path in jar file: '" + name + "'");
+				}
+				return cn;
+			}, progress, entriesRead);
 
-						classes.add(cn);
+			List<byte[]> extraData = readEntries(zip, jarFile, extraEntries, (name, data) -> data, progress, entriesRead);
+			Map<String, byte[]> extraFiles = new HashMap<String, byte[]>();
+			for(int k = 0; k < extraEntries.size(); k++) {
+				extraFiles.put(extraEntries.get(k).getName(), extraData.get(k));
+			}
 
-					} catch (ClassFormatException e) {
-						throw new RuntimeException("Unable to parse class file: " + name + " in " + jarFile.getName(), e);
+			Manifest manifest = null;
+			if(manifestEntry != null) {
+				try(InputStream in = zip.getInputStream(manifestEntry)) {
+					manifest = new Manifest(in);
+				}
+			}
+
+			ClassCollection cc = new ClassCollection(nameSet, classes, manifest);
+			cc.getExtraFiles().putAll(extraFiles);
+			return cc;
+		}
+	}
+
+	/**
+	 * Like JarInputStream, the manifest is only recognized as the first entry, or as the second one after
+	 * the META-INF/ folder. Anywhere else it's kept as an ordinary file.
+	 */
+	private static ZipEntry findManifest(List<? extends ZipEntry> entries) {
+		int k = 0;
+		if(k < entries.size() && entries.get(k).getName().equalsIgnoreCase("META-INF/")) {
+			k++;
+		}
+		if(k < entries.size() && entries.get(k).getName().equalsIgnoreCase(JarFile.MANIFEST_NAME)) {
+			return entries.get(k);
+		}
+		return null;
+	}
+
+	private interface EntryReader<T> {
+		public T read(String name, byte[] data) throws IOException, ClassFormatException;
+	}
+
+	/**
+	 * Inflates and reads the entries in parallel.
+	 *
+	 * @return The results, in the same order as the entries
+	 */
+	private static <T> List<T> readEntries(final ZipFile zip, final File jarFile, List<ZipEntry> entries, final EntryReader<T> reader, final IProgressListener progress, final int[] entriesRead) throws IOException {
+		List<Callable<T>> tasks = new ArrayList<Callable<T>>(entries.size());
+		for(final ZipEntry entry : entries) {
+			tasks.add(() -> {
+				// like JarWriter, reports the number of entries started before this one; counted under
+				// the lock so the values reach the listener in order
+				if(progress != null) {
+					synchronized(progress) {
+						progress.set(entriesRead[0]++);
 					}
-				} else {
+				}
 
-					extraFiles.put(name, IOUtils.readStreamFully(j_in));
+				byte[] data;
+				try(InputStream in = zip.getInputStream(entry)) {
+					data = IOUtils.readStreamFully(in);
 				}
+
+				T rv;
+				try {
+					rv = reader.read(entry.getName(), data);
+				} catch (ClassFormatException e) {
+					throw new RuntimeException("Unable to parse class file: " + entry.getName() + " in " + jarFile.getName(), e);
+				}
+				return rv;
+			});
+		}
+
+		List<T> rv = new ArrayList<T>(entries.size());
+		try {
+			for(Future<T> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+				rv.add(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while reading " + jarFile.getName(), e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
 			}
-			manifest = j_in.getManifest();
-		} finally {
-			if(j_in != null) {
-				j_in.close();
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
 			}
+			if(e.getCause() instanceof Error) {
+				throw (Error)e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
 		}
-
-		ClassCollection cc = new ClassCollection(nameSet, classes, manifest);
-		cc.getExtraFiles().putAll(extraFiles);
-		return cc;
+		return rv;
 	}
 
 }
@@ -0,0 +1,323 @@
+package immibis.bon.io;
+
+import immibis.bon.Mapping;
+import immibis.bon.NameSet;
+import immibis.bon.SymbolTable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A frozen mapping that looks up its entries directly in a file written by {@link MappingCompiler}.
+ * The file is memory-mapped, so nothing is parsed when it's opened and processes using the
+ * same file share its pages through the OS instead of each building the tables on its heap.
+ * Only strings that are actually returned by a lookup are decoded, and each of them only once.
+ */
+public class MappedMapping extends Mapping {
+
+	private final Data data;
+	private final int classes, fields, methods, fieldNames, methodNames, exceptions;
+	private final boolean hasClasses, hasFields, hasMethods, hasNames;
+	private final boolean hasLibraryEntries, namesInLibraries;
+
+	private MappedMapping(NameSet fromNS, NameSet toNS, Data data, int pos) {
+		super(fromNS, toNS);
+		this.data = data;
+
+		ByteBuffer buf = data.buf;
+		super.setDefaultPackage(data.getString(buf.getInt(pos)));
+		int prefixCount = buf.getInt(pos + 4);
+		pos += 8;
+		for(int k = 0; k < prefixCount; k++, pos += 8) {
+			super.addPrefix(data.getString(buf.getInt(pos)), data.getString(buf.getInt(pos + 4)));
+		}
+		namesInLibraries = (buf.getInt(pos) & 1) != 0;
+		classes = pos + 4;
+		fields = data.skipTable(classes);
+		methods = data.skipTable(fields);
+		fieldNames = data.skipTable(methods);
+		methodNames = data.skipTable(fieldNames);
+		exceptions = data.skipTable(methodNames);
+		hasClasses = data.hasEntries(classes);
+		hasFields = data.hasEntries(fields) || data.hasEntries(fieldNames);
+		hasMethods = data.hasEntries(methods) || data.hasEntries(methodNames);
+		hasNames = data.hasEntries(fieldNames) || data.hasEntries(methodNames);
+		hasLibraryEntries = data.hasLibraryOwner(classes, false) || data.hasLibraryOwner(fields, true) || data.hasLibraryOwner(methods, true);
+		freeze();
+	}
+
+	/**
+	 * Opens all mappings in a compiled file.
+	 *
+	 * @param sourceKey The key of the sources the mappings should be compiled from, see {@link MappingCompiler#getSourceKey}
+	 * @throws IOException If the file can't be read, or was compiled by another version or from other sources
+	 */
+	public static Mapping[] load(File file, String sourceKey, NameSet[] fromNS, NameSet[] toNS) throws IOException {
+		ByteBuffer buf;
+		try(RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if(buf.getInt(0) != MappingCompiler.MAGIC || buf.getInt(4) != MappingCompiler.VERSION) {
+			throw new IOException("not a compiled mapping of this version");
+		}
+		int keyLength = buf.getInt(8);
+		byte[] keyBytes = new byte[keyLength];
+		for(int k = 0; k < keyLength; k++) {
+			keyBytes[k] = buf.get(12 + k);
+		}
+		if(!new String(keyBytes, StandardCharsets.UTF_8).equals(sourceKey)) {
+			throw new IOException("compiled from different sources");
+		}
+
+		Data data = new Data(buf, 12 + keyLength);
+		int pos = data.end;
+		if(buf.getInt(pos) != fromNS.length) {
+			throw new IOException("wrong number of mappings");
+		}
+		pos += 4;
+
+		Mapping[] rv = new Mapping[fromNS.length];
+		for(int k = 0; k < rv.length; k++) {
+			MappedMapping m = new MappedMapping(fromNS[k], toNS[k], data, pos);
+			rv[k] = m;
+			pos = data.skipTable(m.exceptions);
+			pos += 4 + buf.getInt(pos); // exception lists
+		}
+		return rv;
+	}
+
+	@Override
+	public boolean mapsClasses() {
+		return hasClasses || super.mapsClasses();
+	}
+
+	@Override
+	public boolean isUnmappable(String clazz) {
+		return !hasLibraryEntries && !(hasNames && namesInLibraries) && super.isUnmappable(clazz);
+	}
+
+	@Override
+	public boolean mapsFields() {
+		return hasFields;
+	}
+
+	@Override
+	public boolean mapsMethods() {
+		return hasMethods;
+	}
+
+	@Override
+	public long estimateSize() {
+		// the file itself is in the page cache, only strings decoded from it are on the heap
+		return super.estimateSize() + data.stringCount * 8L;
+	}
+
+	@Override
+	protected String findClass(String in) {
+		int id = data.findString(in);
+		if(id < 0) {
+			return null;
+		}
+		int out = data.lookup(classes, id);
+		return out < 0 ? null : data.getString(out);
+	}
+
+	private boolean hasNames(String clazz) {
+		return namesInLibraries || clazz == null || !isLibraryClass(clazz);
+	}
+
+	@Override
+	protected String findMethod(String clazz, String name, String desc) {
+		int clazzId = data.findString(clazz), nameId = data.findString(name), descId = data.findString(desc);
+		if(nameId < 0) {
+			return null;
+		}
+		int out = clazzId < 0 || descId < 0 ? -1 : data.lookup(methods, SymbolTable.key(clazzId, nameId, descId));
+		if(out < 0 && hasNames(clazz)) {
+			out = data.lookup(methodNames, nameId);
+		}
+		return out < 0 ? null : data.getString(out);
+	}
+
+	@Override
+	protected String findField(String clazz, String name) {
+		int clazzId = data.findString(clazz), nameId = data.findString(name);
+		if(nameId < 0) {
+			return null;
+		}
+		int out = clazzId < 0 ? -1 : data.lookup(fields, SymbolTable.key(clazzId, nameId, 0));
+		if(out < 0 && hasNames(clazz)) {
+			out = data.lookup(fieldNames, nameId);
+		}
+		return out < 0 ? null : data.getString(out);
+	}
+
+	@Override
+	public List<String> getExceptions(String clazz, String method, String desc) {
+		int clazzId = data.findString(clazz), methodId = data.findString(method), descId = data.findString(desc);
+		int pos = clazzId < 0 || methodId < 0 || descId < 0 ? -1 : data.lookup(exceptions, SymbolTable.key(clazzId, methodId, descId));
+		return pos < 0 ? Collections.<String>emptyList() : readList(pos);
+	}
+
+	private List<String> readList(int pos) {
+		int count = data.buf.getInt(pos);
+		List<String> rv = new ArrayList<>(count);
+		for(int k = 0; k < count; k++) {
+			rv.add(data.getString(data.buf.getInt(pos + 4 + k * 4)));
+		}
+		return Collections.unmodifiableList(rv);
+	}
+
+	@Override
+	public void accept(EntryVisitor visitor) {
+		ByteBuffer buf = data.buf;
+		for(int pos = data.getSlots(classes), end = data.skipTable(classes); pos < end; pos += 12) {
+			if(buf.getInt(pos + 8) >= 0) {
+				visitor.visitClass(data.getString((int)buf.getLong(pos)), data.getString(buf.getInt(pos + 8)));
+			}
+		}
+		for(int pos = data.getSlots(fields), end = data.skipTable(fields); pos < end; pos += 12) {
+			if(buf.getInt(pos + 8) >= 0) {
+				long key = buf.getLong(pos);
+				visitor.visitField(data.getString(SymbolTable.getKeyPart(key, 0)), data.getString(SymbolTable.getKeyPart(key, 1)), data.getString(buf.getInt(pos + 8)));
+			}
+		}
+		for(int pos = data.getSlots(methods), end = data.skipTable(methods); pos < end; pos += 12) {
+			if(buf.getInt(pos + 8) >= 0) {
+				long key = buf.getLong(pos);
+				visitor.visitMethod(data.getString(SymbolTable.getKeyPart(key, 0)), data.getString(SymbolTable.getKeyPart(key, 1)),
+						data.getString(SymbolTable.getKeyPart(key, 2)), data.getString(buf.getInt(pos + 8)));
+			}
+		}
+		for(int pos = data.getSlots(fieldNames), end = data.skipTable(fieldNames); pos < end; pos += 12) {
+			if(buf.getInt(pos + 8) >= 0) {
+				visitor.visitFieldName(data.getString((int)buf.getLong(pos)), data.getString(buf.getInt(pos + 8)));
+			}
+		}
+		for(int pos = data.getSlots(methodNames), end = data.skipTable(methodNames); pos < end; pos += 12) {
+			if(buf.getInt(pos + 8) >= 0) {
+				visitor.visitMethodName(data.getString((int)buf.getLong(pos)), data.getString(buf.getInt(pos + 8)));
+			}
+		}
+		for(int pos = data.getSlots(exceptions), end = data.skipTable(exceptions); pos < end; pos += 12) {
+			if(buf.getInt(pos + 8) >= 0) {
+				long key = buf.getLong(pos);
+				visitor.visitExceptions(data.getString(SymbolTable.getKeyPart(key, 0)), data.getString(SymbolTable.getKeyPart(key, 1)),
+						data.getString(SymbolTable.getKeyPart(key, 2)), readList(buf.getInt(pos + 8)));
+			}
+		}
+	}
+
+	/**
+	 * The string pool and tables of one file, shared by all mappings in it.
+	 * Only absolute reads are used on the buffer, so it can be read by any number of threads.
+	 */
+	private static class Data {
+		final ByteBuffer buf;
+		final int stringCount, offsets, blob, stringTable, end;
+		final AtomicReferenceArray<String> decoded;
+
+		Data(ByteBuffer buf, int pos) {
+			this.buf = buf;
+			stringCount = buf.getInt(pos);
+			offsets = pos + 4;
+			blob = offsets + (stringCount + 1) * 4 + 4;
+			stringTable = blob + buf.getInt(blob - 4);
+			end = skipTable(stringTable);
+			decoded = new AtomicReferenceArray<>(stringCount);
+		}
+
+		int getSlots(int table) {
+			return table + 8 + buf.getInt(table) * 4;
+		}
+
+		int skipTable(int table) {
+			return getSlots(table) + buf.getInt(table + 4) * 12;
+		}
+
+		boolean hasEntries(int table) {
+			for(int pos = getSlots(table), end = skipTable(table); pos < end; pos += 12) {
+				if(buf.getInt(pos + 8) >= 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * Whether the class or owner of any entry in the table is a library class, see {@link Mapping#isUnmappable}.
+		 * Only strings starting with j are decoded to check.
+		 */
+		boolean hasLibraryOwner(int table, boolean memberKeys) {
+			for(int pos = getSlots(table), end = skipTable(table); pos < end; pos += 12) {
+				if(buf.getInt(pos + 8) >= 0) {
+					long key = buf.getLong(pos);
+					int id = memberKeys ? SymbolTable.getKeyPart(key, 0) : (int)key;
+					if(buf.get(blob + buf.getInt(offsets + id * 4)) == 'j' && isLibraryClass(getString(id))) {
+						return true;
+					}
+				}
+			}
+			return false;
+		}
+
+		/**
+		 * @return The value for the key, or -1 if there is none
+		 */
+		int lookup(int table, long key) {
+			int buckets = buf.getInt(table), slots = buf.getInt(table + 4);
+			int seed = buf.getInt(table + 8 + MappingCompiler.bucket(key, buckets) * 4);
+			int pos = table + 8 + buckets * 4 + MappingCompiler.slot(key, seed, slots) * 12;
+			return buf.getLong(pos) == key ? buf.getInt(pos + 8) : -1;
+		}
+
+		/**
+		 * @return The id of the string, or -1 if it isn't in the file
+		 */
+		int findString(String s) {
+			if(s == null) {
+				return -1;
+			}
+			int id = lookup(stringTable, MappingCompiler.hashString(s));
+			return id >= 0 && stringEquals(id, s) ? id : -1;
+		}
+
+		private boolean stringEquals(int id, String s) {
+			int start = blob + buf.getInt(offsets + id * 4), length = blob + buf.getInt(offsets + id * 4 + 4) - start;
+			if(length != s.length()) {
+				// a string with the same number of bytes as chars is all ASCII, anything else is compared decoded
+				return length > s.length() && getString(id).equals(s);
+			}
+			for(int k = 0; k < length; k++) {
+				if(buf.get(start + k) != s.charAt(k)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		String getString(int id) {
+			String rv = decoded.get(id);
+			if(rv == null) {
+				int start = blob + buf.getInt(offsets + id * 4);
+				byte[] bytes = new byte[blob + buf.getInt(offsets + id * 4 + 4) - start];
+				for(int k = 0; k < bytes.length; k++) {
+					bytes[k] = buf.get(start + k);
+				}
+				rv = new String(bytes, StandardCharsets.UTF_8);
+				decoded.set(id, rv);
+			}
+			return rv;
+		}
+	}
+
+}
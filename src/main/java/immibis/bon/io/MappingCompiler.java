@@ -0,0 +1,404 @@
+package immibis.bon.io;
+
+import immibis.bon.Mapping;
+import immibis.bon.NameMapping;
+import immibis.bon.SymbolTable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * Writes mappings into one binary file that {@link MappedMapping} can use without parsing it.
+ *
+ * File format (big-endian):
+ * <pre>
+ * int magic, int version
+ * int keyLength, UTF-8 bytes of the source key (see getSourceKey)
+ * int stringCount, (stringCount + 1) * int end offset, int blobLength, blob of UTF-8 strings in sorted order
+ * table: string hash -> string id
+ * int mappingCount, then for each mapping:
+ *   int defaultPackage
+ *   int prefixCount, prefixCount * (int old, int new)
+ *   int flags: 1 if the name tables also apply to library classes (see NameMapping.setNamesInLibraries)
+ *   table: class -> class
+ *   table: class, name -> field name
+ *   table: class, name, desc -> method name
+ *   table: name -> field name, for entries of any class (see NameMapping)
+ *   table: name -> method name, for entries of any class and descriptor
+ *   table: class, name, desc -> position of the exception list in the file
+ *   int listsLength, exception lists as int count, count * int class
+ * </pre>
+ * A table is a perfect hash table: int buckets, int slots, buckets * int seed, slots * (long key, int value).
+ * The bucket of a key selects a seed, and the key's slot is found by hashing it with that seed, so every
+ * lookup reads exactly one slot. Empty slots have key -1 and value -1. Keys of entries are string ids
+ * packed with {@link SymbolTable#key}.
+ */
+public class MappingCompiler {
+
+	static final int MAGIC = 0x424F4E4D; // "BONM"
+	static final int VERSION = 3;
+
+	private static final int MAX_SEED = 1 << 24;
+
+	/**
+	 * Returns a key for the contents of the source files and any extra settings the result depends on.
+	 * A compiled file is only used if it was compiled from sources with the same key.
+	 */
+	public static String getSourceKey(String settings, ByteBuffer... sources) {
+		MessageDigest digest = newDigest(settings);
+		for(ByteBuffer b : sources) {
+			digest.update((byte)0);
+			digest.update(b.duplicate());
+		}
+		return toHex(digest);
+	}
+
+	private static MessageDigest newDigest(String settings) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-1 not supported", e);
+		}
+		digest.update(settings.getBytes(StandardCharsets.UTF_8));
+		return digest;
+	}
+
+	private static String toHex(MessageDigest digest) {
+		StringBuilder rv = new StringBuilder();
+		for(byte b : digest.digest()) {
+			rv.append(String.format("%02x", b & 255));
+		}
+		return rv.toString();
+	}
+
+	public static void compile(File file, String sourceKey, Mapping... mappings) throws IOException {
+		final TreeSet<String> sorted = new TreeSet<>();
+		for(Mapping m : mappings) {
+			m.accept(new Mapping.EntryVisitor() {
+				@Override
+				public void visitClass(String in, String out) {
+					sorted.add(in);
+					sorted.add(out);
+				}
+
+				@Override
+				public void visitField(String clazz, String name, String out) {
+					sorted.add(clazz);
+					sorted.add(name);
+					sorted.add(out);
+				}
+
+				@Override
+				public void visitMethod(String clazz, String name, String desc, String out) {
+					sorted.add(clazz);
+					sorted.add(name);
+					sorted.add(desc);
+					sorted.add(out);
+				}
+
+				@Override
+				public void visitExceptions(String clazz, String method, String desc, List<String> exc) {
+					sorted.add(clazz);
+					sorted.add(method);
+					sorted.add(desc);
+					sorted.addAll(exc);
+				}
+
+				@Override
+				public void visitFieldName(String name, String out) {
+					sorted.add(name);
+					sorted.add(out);
+				}
+
+				@Override
+				public void visitMethodName(String name, String out) {
+					sorted.add(name);
+					sorted.add(out);
+				}
+			});
+			sorted.add(m.getDefaultPackage());
+			sorted.addAll(m.getPrefixes().keySet());
+			sorted.addAll(m.getPrefixes().values());
+		}
+		if(sorted.size() > SymbolTable.MAX_SYMBOLS) {
+			throw new IOException("too many strings");
+		}
+
+		final Map<String, Integer> ids = new HashMap<>();
+		String[] strings = sorted.toArray(new String[sorted.size()]);
+		for(int k = 0; k < strings.length; k++) {
+			ids.put(strings[k], k);
+		}
+
+		file.getParentFile().mkdirs();
+		File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+		try {
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				byte[] keyBytes = sourceKey.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(keyBytes.length);
+				out.write(keyBytes);
+
+				writeStrings(out, strings);
+
+				out.writeInt(mappings.length);
+				for(Mapping m : mappings) {
+					writeMapping(out, m, ids);
+				}
+			}
+
+			// replace the file in one step, so a concurrent run never sees half a file
+			if(!temp.renameTo(file)) {
+				file.delete();
+				if(!temp.renameTo(file)) {
+					throw new IOException("can't rename " + temp + " to " + file);
+				}
+			}
+		} finally {
+			temp.delete();
+		}
+	}
+
+	private static void writeStrings(DataOutputStream out, String[] strings) throws IOException {
+		byte[][] bytes = new byte[strings.length][];
+		long[] hashes = new long[strings.length];
+		int[] ids = new int[strings.length];
+		int length = 0;
+		for(int k = 0; k < strings.length; k++) {
+			bytes[k] = strings[k].getBytes(StandardCharsets.UTF_8);
+			hashes[k] = hashString(strings[k]);
+			ids[k] = k;
+			length += bytes[k].length;
+		}
+
+		out.writeInt(strings.length);
+		int offset = 0;
+		out.writeInt(offset);
+		for(byte[] b : bytes) {
+			offset += b.length;
+			out.writeInt(offset);
+		}
+		out.writeInt(length);
+		for(byte[] b : bytes) {
+			out.write(b);
+		}
+
+		writeTable(out, hashes, ids);
+	}
+
+	private static void writeMapping(final DataOutputStream out, Mapping m, final Map<String, Integer> ids) throws IOException {
+		out.writeInt(ids.get(m.getDefaultPackage()));
+		out.writeInt(m.getPrefixes().size());
+		for(Map.Entry<String, String> e : m.getPrefixes().entrySet()) {
+			out.writeInt(ids.get(e.getKey()));
+			out.writeInt(ids.get(e.getValue()));
+		}
+		out.writeInt(m instanceof NameMapping && ((NameMapping)m).getNamesInLibraries() ? 1 : 0);
+
+		final Entries classes = new Entries(), fields = new Entries(), methods = new Entries(), exceptions = new Entries();
+		final Entries fieldNames = new Entries(), methodNames = new Entries();
+		final List<List<String>> exceptionLists = new ArrayList<>();
+		m.accept(new Mapping.EntryVisitor() {
+			@Override
+			public void visitClass(String in, String out) {
+				classes.add(ids.get(in), ids.get(out));
+			}
+
+			@Override
+			public void visitField(String clazz, String name, String out) {
+				fields.add(SymbolTable.key(ids.get(clazz), ids.get(name), 0), ids.get(out));
+			}
+
+			@Override
+			public void visitMethod(String clazz, String name, String desc, String out) {
+				methods.add(SymbolTable.key(ids.get(clazz), ids.get(name), ids.get(desc)), ids.get(out));
+			}
+
+			@Override
+			public void visitExceptions(String clazz, String method, String desc, List<String> exc) {
+				exceptions.add(SymbolTable.key(ids.get(clazz), ids.get(method), ids.get(desc)), 0);
+				exceptionLists.add(exc);
+			}
+
+			@Override
+			public void visitFieldName(String name, String out) {
+				fieldNames.add(ids.get(name), ids.get(out));
+			}
+
+			@Override
+			public void visitMethodName(String name, String out) {
+				methodNames.add(ids.get(name), ids.get(out));
+			}
+		});
+
+		writeTable(out, classes.getKeys(), classes.getValues());
+		writeTable(out, fields.getKeys(), fields.getValues());
+		writeTable(out, methods.getKeys(), methods.getValues());
+		writeTable(out, fieldNames.getKeys(), fieldNames.getValues());
+		writeTable(out, methodNames.getKeys(), methodNames.getValues());
+
+		// the lists follow the table, so their positions are known before the table is written
+		int[] positions = exceptions.getValues();
+		int pos = out.size() + getTableSize(positions.length) + 4;
+		int listsLength = 0;
+		for(int k = 0; k < positions.length; k++) {
+			positions[k] = pos + listsLength;
+			listsLength += 4 + exceptionLists.get(k).size() * 4;
+		}
+		writeTable(out, exceptions.getKeys(), positions);
+		out.writeInt(listsLength);
+		for(List<String> list : exceptionLists) {
+			out.writeInt(list.size());
+			for(String s : list) {
+				out.writeInt(ids.get(s));
+			}
+		}
+	}
+
+	private static int getBucketCount(int entries) {
+		return Math.max(1, entries / 4);
+	}
+
+	private static int getSlotCount(int entries) {
+		return Math.max(1, entries + entries / 8);
+	}
+
+	private static int getTableSize(int entries) {
+		return 8 + getBucketCount(entries) * 4 + getSlotCount(entries) * 12;
+	}
+
+	private static void writeTable(DataOutputStream out, long[] keys, int[] values) throws IOException {
+		int buckets = getBucketCount(keys.length), slots = getSlotCount(keys.length);
+
+		// group the entries by bucket
+		int[] bucketStart = new int[buckets + 1];
+		for(long key : keys) {
+			bucketStart[bucket(key, buckets) + 1]++;
+		}
+		for(int k = 0; k < buckets; k++) {
+			bucketStart[k + 1] += bucketStart[k];
+		}
+		int[] members = new int[keys.length];
+		int[] fill = Arrays.copyOf(bucketStart, buckets);
+		for(int k = 0; k < keys.length; k++) {
+			members[fill[bucket(keys[k], buckets)]++] = k;
+		}
+
+		// big buckets are the hardest to place, so they go first while most slots are free
+		List<Integer> order = new ArrayList<>(buckets);
+		for(int k = 0; k < buckets; k++) {
+			order.add(k);
+		}
+		Collections.sort(order, (a, b) -> (bucketStart[b + 1] - bucketStart[b]) - (bucketStart[a + 1] - bucketStart[a]));
+
+		int[] seeds = new int[buckets];
+		int[] slotEntries = new int[slots];
+		Arrays.fill(slotEntries, -1);
+		int[] placed = new int[16];
+		for(int bucket : order) {
+			int start = bucketStart[bucket], end = bucketStart[bucket + 1];
+			if(start == end) {
+				continue;
+			}
+			if(placed.length < end - start) {
+				placed = new int[end - start];
+			}
+			for(int seed = 1;; seed++) {
+				if(seed == MAX_SEED) {
+					throw new IOException("can't build hash table, duplicate keys?");
+				}
+				int n = 0;
+				for(; n < end - start; n++) {
+					int slot = slot(keys[members[start + n]], seed, slots);
+					if(slotEntries[slot] >= 0) {
+						break;
+					}
+					slotEntries[slot] = members[start + n];
+					placed[n] = slot;
+				}
+				if(n == end - start) {
+					seeds[bucket] = seed;
+					break;
+				}
+				while(n > 0) {
+					slotEntries[placed[--n]] = -1;
+				}
+			}
+		}
+
+		out.writeInt(buckets);
+		out.writeInt(slots);
+		for(int seed : seeds) {
+			out.writeInt(seed);
+		}
+		for(int entry : slotEntries) {
+			out.writeLong(entry < 0 ? -1 : keys[entry]);
+			out.writeInt(entry < 0 ? -1 : values[entry]);
+		}
+	}
+
+	static long hashString(String s) {
+		long h = 0xcbf29ce484222325L;
+		for(int k = 0; k < s.length(); k++) {
+			h = (h ^ s.charAt(k)) * 0x100000001b3L;
+		}
+		return h;
+	}
+
+	static int bucket(long key, int buckets) {
+		return (int)((mix(key) >>> 1) % buckets);
+	}
+
+	static int slot(long key, int seed, int slots) {
+		return (int)((mix(key ^ (seed * 0x9E3779B97F4A7C15L)) >>> 1) % slots);
+	}
+
+	private static long mix(long h) {
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb93fe53a2ce5L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	private static class Entries {
+		private long[] keys = new long[256];
+		private int[] values = new int[256];
+		private int size;
+
+		void add(long key, int value) {
+			if(size == keys.length) {
+				keys = Arrays.copyOf(keys, size * 2);
+				values = Arrays.copyOf(values, size * 2);
+			}
+			keys[size] = key;
+			values[size++] = value;
+		}
+
+		long[] getKeys() {
+			return Arrays.copyOf(keys, size);
+		}
+
+		int[] getValues() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+}
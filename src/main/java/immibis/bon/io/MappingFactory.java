@@ -1,16 +1,20 @@
 package immibis.bon.io;
 
+import immibis.bon.ComposedMapping;
 import immibis.bon.IProgressListener;
-import immibis.bon.JoinMapping;
 import immibis.bon.Mapping;
 import immibis.bon.NameSet;
+import immibis.bon.mcp.ConfSource;
 import immibis.bon.mcp.MappingLoader_MCP;
 import immibis.bon.mcp.MappingLoader_MCP.CantLoadMCPMappingException;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class MappingFactory {
 
@@ -28,12 +32,96 @@ public class MappingFactory {
 
 	}
 
-	private static Map<String, MappingLoader_MCP> mcpInstances = new HashMap<String, MappingLoader_MCP>();
+	/**
+	 * A registered MCP configuration, and the composed mappings made from it so far.
+	 * Its mappings are loaded by the first getMapping call that needs them.
+	 */
+	private static class MCPInstance {
+		final String key;
+		final MappingLoader_MCP loader;
+		long size; // guarded by the lock of loadedInstances
+		final Map<String, Mapping> composedMappings = new ConcurrentHashMap<String, Mapping>(); // "from -> to" -> mapping
+
+		MCPInstance(String key, MappingLoader_MCP loader) {
+			this.key = key;
+			this.loader = loader;
+			this.size = loader.estimateSize();
+		}
+	}
+
+	// both guarded by the lock of loadedInstances
+	private static final Map<String, MCPInstance> loadedInstances = new LinkedHashMap<String, MCPInstance>(16, 0.75f, true); // version, side, fingerprint -> instance, loaded or registered; least recently used first
+	private static final Map<String, MCPInstance> mcpInstances = new HashMap<String, MCPInstance>(); // "version side" -> instance used by getMapping
 
 	public static boolean quiet = false;
 
+	/**
+	 * Loaded MCP configurations are kept for reuse until their estimated heap size adds up to more than this.
+	 * Then the mappings of the least recently used ones are unloaded, but never those of the one that was used last.
+	 * Registered configurations stay registered, and load their mappings again when they are next needed.
+	 */
+	public static long mcpMemoryBudget = Runtime.getRuntime().maxMemory() / 4;
+
+	/**
+	 * Makes the MCP configuration the one used for its version and side. If the same files were
+	 * registered before and are unchanged, the mappings loaded then are reused.
+	 *
+	 * @param mcpPath An MCP directory, or an MCP zip archive, which is read in place
+	 */
 	public static void registerMCPInstance(String mcVersion, NameSet.Side side, File mcpPath, IProgressListener progress) throws IOException, CantLoadMCPMappingException {
-		mcpInstances.put(mcVersion + " " + side, new MappingLoader_MCP(mcVersion, side, mcpPath, progress));
+		String versionKey = mcVersion + " " + side;
+		String key = versionKey + " " + ConfSource.getFingerprint(mcpPath);
+
+		synchronized(loadedInstances) {
+			MCPInstance instance = loadedInstances.get(key);
+			if(instance != null) {
+				mcpInstances.put(versionKey, instance);
+				return;
+			}
+		}
+
+		// loading takes a while, so other versions can be used meanwhile
+		MCPInstance instance = new MCPInstance(key, new MappingLoader_MCP(mcVersion, side, mcpPath, ClassCollectionFactory.cacheDir, progress));
+
+		synchronized(loadedInstances) {
+			loadedInstances.put(key, instance);
+			mcpInstances.put(versionKey, instance);
+			evict(instance);
+		}
+	}
+
+	/**
+	 * Unloads the least recently used instances other than keep until the rest fit in the budget.
+	 * Unloaded instances that are no longer registered are forgotten.
+	 * Must hold the lock of loadedInstances.
+	 */
+	private static void evict(MCPInstance keep) {
+		long total = 0;
+		for(MCPInstance i : loadedInstances.values()) {
+			total += i.size;
+		}
+		for(Iterator<MCPInstance> it = loadedInstances.values().iterator(); total > mcpMemoryBudget && it.hasNext();) {
+			MCPInstance evicted = it.next();
+			if(evicted != keep && evicted.size > 0) {
+				evicted.loader.unload();
+				evicted.composedMappings.clear();
+				total -= evicted.size;
+				evicted.size = 0;
+				if(!mcpInstances.containsValue(evicted)) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	private static MCPInstance getMCPInstance(String versionKey) {
+		synchronized(loadedInstances) {
+			MCPInstance instance = mcpInstances.get(versionKey);
+			if(instance != null) {
+				loadedInstances.get(instance.key); // counts as a use
+			}
+			return instance;
+		}
 	}
 
 	@SuppressWarnings("incomplete-switch")
@@ -46,46 +134,103 @@ public class MappingFactory {
 			throw new MappingUnavailableException(from, to, "");
 		}
 
-		MappingLoader_MCP mcpLoader = mcpInstances.get(from.mcVersion + " " + from.side);
+		MCPInstance instance = getMCPInstance(from.mcVersion + " " + from.side);
+
+		if(instance != null) {
+			MappingLoader_MCP loader = instance.loader;
+
+			// OBF <-> SRG only needs the SRG mappings, anything involving MCP names also needs the CSV mappings
+			boolean withCSV = from.type == NameSet.Type.MCP || to.type == NameSet.Type.MCP;
+			Mapping forwardSRG, reverseSRG, forwardCSV = null, reverseCSV = null;
+			try {
+				// the mappings all come from this load, even if another thread evicts the instance meanwhile
+				synchronized(loader) {
+					loader.load(withCSV, progress);
+					forwardSRG = loader.getForwardSRG();
+					reverseSRG = loader.getReverseSRG();
+					if(withCSV) {
+						forwardCSV = loader.getForwardCSV();
+						reverseCSV = loader.getReverseCSV();
+					}
+				}
+			} catch (IOException e) {
+				throw new MappingUnavailableException(from, to, "can't load MCP mappings: " + e);
+			}
 
-		if(mcpLoader != null) {
-			MappingLoader_MCP loader = mcpLoader;
+			Mapping rv = null;
 			switch(from.type) {
 				case MCP:
 					switch(to.type) {
 						case OBF:
-							return new JoinMapping(
-									loader.getReverseCSV(),
-									loader.getReverseSRG()
-							);
+							rv = getComposedMapping(instance, from, to, reverseCSV, reverseSRG);
+							break;
 						case SRG:
-							return loader.getReverseCSV();
+							rv = reverseCSV;
+							break;
 					}
 					break;
 				case OBF:
 					switch(to.type) {
 						case MCP:
-							return new JoinMapping(
-									loader.getForwardSRG(),
-									loader.getForwardCSV()
-							);
+							rv = getComposedMapping(instance, from, to, forwardSRG, forwardCSV);
+							break;
 						case SRG:
-							return loader.getForwardSRG();
+							rv = forwardSRG;
+							break;
 					}
 					break;
 				case SRG:
 					switch(to.type) {
 						case OBF:
-							return loader.getReverseSRG();
+							rv = reverseSRG;
+							break;
 						case MCP:
-							return loader.getForwardCSV();
+							rv = forwardCSV;
+							break;
 					}
 					break;
 			}
-			throw new MappingUnavailableException(from, to, "not supported");
+			if(rv == null) {
+				throw new MappingUnavailableException(from, to, "not supported");
+			}
+
+			updateSize(instance);
+			return rv;
 		}
 
 		throw new MappingUnavailableException(from, to, "no known MCP folder for " + from.mcVersion);
 	}
 
+	/**
+	 * Counts what the instance has loaded now, whoever loaded it, and evicts other instances if that's over the budget.
+	 */
+	private static void updateSize(MCPInstance instance) {
+		synchronized(loadedInstances) {
+			long size = instance.loader.estimateSize();
+			for(Mapping m : instance.composedMappings.values()) {
+				size += m.estimateSize();
+			}
+			instance.size = size;
+			// an unloaded instance that was forgotten counts again while its mappings are loaded
+			if(loadedInstances.get(instance.key) == null) {
+				loadedInstances.put(instance.key, instance);
+			}
+			evict(instance);
+		}
+	}
+
+	/**
+	 * Composing the mappings takes a moment, so the result is kept as long as the MCP instance,
+	 * and counted in its size.
+	 */
+	private static Mapping getComposedMapping(MCPInstance instance, NameSet from, NameSet to, Mapping a, Mapping b) {
+		String key = from + " -> " + to;
+		Mapping rv = instance.composedMappings.get(key);
+		if(rv == null) {
+			rv = new ComposedMapping(a, b);
+			instance.composedMappings.put(key, rv);
+		}
+		return rv;
+	}
+
 }
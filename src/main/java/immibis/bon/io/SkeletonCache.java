@@ -0,0 +1,269 @@
+package immibis.bon.io;
+
+import immibis.bon.ClassFormatException;
+import immibis.bon.ClassSkeleton;
+import immibis.bon.NameSet;
+import immibis.bon.SkeletonCollection;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the skeletons of reference jars and directories in cache files, so they don't have to be parsed again.
+ * A cache file is named after the SHA-1 of the jar contents and the nameset, so a changed jar never
+ * matches an old cache file. Directories are keyed by the path, size and modification time of their
+ * files instead, like {@link immibis.bon.mcp.ConfSource#getFingerprint(File)}, since hashing all of
+ * their class files would cost about as much as parsing them.
+ *
+ * File format (big-endian):
+ * <pre>
+ * int magic, int version
+ * int stringCount, then for each string: int length, UTF-8 bytes
+ * int classCount, then for each class:
+ *   int name, int superName (-1 if none), int access
+ *   int interfaceCount, interfaceCount * int name
+ *   int methodCount, methodCount * (int name, int desc)
+ *   int fieldCount, fieldCount * (int name, int desc)
+ * </pre>
+ * All names and descriptors are indices into the string table.
+ */
+public class SkeletonCache {
+
+	private static final int MAGIC = 0x424F4E53; // "BONS"
+	private static final int VERSION = 1;
+
+	private final File dir;
+
+	public SkeletonCache(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Returns the skeletons of the jar or directory from the cache, or loads them and adds them to the cache.
+	 * Problems with the cache itself are not errors, the classes are just loaded normally then.
+	 */
+	public SkeletonCollection load(NameSet ns, File from) throws IOException, ClassFormatException {
+		File cacheFile = new File(dir, getKey(ns, from) + ".skel");
+
+		if(cacheFile.isFile()) {
+			try {
+				SkeletonCollection rv = read(ns, cacheFile);
+				ClassCollectionFactory.markCacheFileUsed(cacheFile);
+				return rv;
+			} catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+				if(!MappingFactory.quiet) {
+					System.out.println("Ignoring broken cache file " + cacheFile + ": " + e);
+				}
+			}
+		}
+
+		SkeletonCollection rv = from.isDirectory() ? ClassCollectionFactory.loadReferencesFromDir(ns, from) : JarLoader.loadReferencesFromJar(ns, from);
+
+		try {
+			write(rv, cacheFile);
+		} catch (IOException e) {
+			if(!MappingFactory.quiet) {
+				System.out.println("Unable to write cache file " + cacheFile + ": " + e);
+			}
+		}
+
+		return rv;
+	}
+
+	private static String getKey(NameSet ns, File from) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException("SHA-1 not supported", e);
+		}
+
+		if(from.isDirectory()) {
+			StringBuilder listing = new StringBuilder(from.getCanonicalPath());
+			addListing("", from, listing);
+			digest.update(listing.toString().getBytes(StandardCharsets.UTF_8));
+		} else {
+			try(InputStream in = new FileInputStream(from)) {
+				byte[] buffer = new byte[65536];
+				int read;
+				while((read = in.read(buffer)) >= 0) {
+					digest.update(buffer, 0, read);
+				}
+			}
+		}
+		digest.update(ns.toString().getBytes(StandardCharsets.UTF_8));
+
+		StringBuilder rv = new StringBuilder();
+		for(byte b : digest.digest()) {
+			rv.append(String.format("%02x", b & 255));
+		}
+		return rv.toString();
+	}
+
+	/**
+	 * Appends the path, size and modification time of each class file under dir, in a fixed order.
+	 */
+	private static void addListing(String prefix, File dir, StringBuilder rv) {
+		String[] names = dir.list();
+		if(names == null) {
+			return;
+		}
+		Arrays.sort(names);
+		for(String name : names) {
+			File f = new File(dir, name);
+			if(f.isDirectory()) {
+				addListing(prefix + name + "/", f, rv);
+			} else if(name.endsWith(".class")) {
+				rv.append('|').append(prefix).append(name).append(':').append(f.length()).append(':').append(f.lastModified());
+			}
+		}
+	}
+
+	private static SkeletonCollection read(NameSet ns, File cacheFile) throws IOException {
+		MappedByteBuffer buf;
+		try(RandomAccessFile raf = new RandomAccessFile(cacheFile, "r"); FileChannel channel = raf.getChannel()) {
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if(buf.getInt() != MAGIC || buf.getInt() != VERSION) {
+			throw new IOException("not a cache file of this version");
+		}
+
+		String[] strings = new String[readCount(buf, 4)];
+		byte[] bytes = new byte[256];
+		for(int k = 0; k < strings.length; k++) {
+			int length = readCount(buf, 1);
+			if(bytes.length < length) {
+				bytes = new byte[Math.max(length, bytes.length * 2)];
+			}
+			buf.get(bytes, 0, length);
+			strings[k] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+		}
+
+		int count = readCount(buf, 24);
+		List<ClassSkeleton> classes = new ArrayList<>(count);
+		for(int k = 0; k < count; k++) {
+			String name = strings[buf.getInt()];
+			int superName = buf.getInt();
+			int access = buf.getInt();
+			String[] interfaces = readStrings(buf, strings, 1);
+			String[] methods = readStrings(buf, strings, 2);
+			String[] fields = readStrings(buf, strings, 2);
+			classes.add(new ClassSkeleton(name, superName < 0 ? null : strings[superName], access, interfaces, methods, fields));
+		}
+
+		return new SkeletonCollection(ns, classes);
+	}
+
+	private static String[] readStrings(MappedByteBuffer buf, String[] strings, int perEntry) throws IOException {
+		String[] rv = new String[readCount(buf, perEntry * 4) * perEntry];
+		for(int k = 0; k < rv.length; k++) {
+			rv[k] = strings[buf.getInt()];
+		}
+		return rv;
+	}
+
+	/**
+	 * Reads a count and checks that the rest of the file can hold that many items, so a broken
+	 * file can't make us allocate a negative or huge array.
+	 *
+	 * @param minItemSize The smallest number of bytes each item takes in the file
+	 */
+	private static int readCount(MappedByteBuffer buf, int minItemSize) throws IOException {
+		int count = buf.getInt();
+		if(count < 0 || count > buf.remaining() / minItemSize) {
+			throw new IOException("bad count " + count + " at " + (buf.position() - 4));
+		}
+		return count;
+	}
+
+	private static void write(SkeletonCollection sc, File cacheFile) throws IOException {
+		Map<String, Integer> ids = new HashMap<>();
+		List<String> strings = new ArrayList<>();
+		for(ClassSkeleton cs : sc.getSkeletons()) {
+			addString(cs.name, ids, strings);
+			if(cs.superName != null) {
+				addString(cs.superName, ids, strings);
+			}
+			for(String s : cs.interfaces) {
+				addString(s, ids, strings);
+			}
+			for(String s : cs.methods) {
+				addString(s, ids, strings);
+			}
+			for(String s : cs.fields) {
+				addString(s, ids, strings);
+			}
+		}
+
+		cacheFile.getParentFile().mkdirs();
+		File temp = File.createTempFile(cacheFile.getName(), ".tmp", cacheFile.getParentFile());
+		try {
+			try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+
+				out.writeInt(strings.size());
+				for(String s : strings) {
+					byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+					out.writeInt(bytes.length);
+					out.write(bytes);
+				}
+
+				Collection<ClassSkeleton> classes = sc.getSkeletons();
+				out.writeInt(classes.size());
+				for(ClassSkeleton cs : classes) {
+					out.writeInt(ids.get(cs.name));
+					out.writeInt(cs.superName == null ? -1 : ids.get(cs.superName));
+					out.writeInt(cs.access);
+					writeStrings(out, cs.interfaces, ids, 1);
+					writeStrings(out, cs.methods, ids, 2);
+					writeStrings(out, cs.fields, ids, 2);
+				}
+			}
+
+			// replace the file in one step, so a concurrent run never sees half a cache file
+			if(!temp.renameTo(cacheFile)) {
+				cacheFile.delete();
+				if(!temp.renameTo(cacheFile)) {
+					throw new IOException("can't rename " + temp + " to " + cacheFile);
+				}
+			}
+		} finally {
+			temp.delete();
+		}
+	}
+
+	private static void addString(String s, Map<String, Integer> ids, List<String> strings) {
+		if(!ids.containsKey(s)) {
+			ids.put(s, strings.size());
+			strings.add(s);
+		}
+	}
+
+	private static void writeStrings(DataOutputStream out, String[] values, Map<String, Integer> ids, int perEntry) throws IOException {
+		out.writeInt(values.length / perEntry);
+		for(String s : values) {
+			out.writeInt(ids.get(s));
+		}
+	}
+
+}
@@ -0,0 +1,139 @@
+package immibis.bon.mcp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Parses the lines of a conf file straight from a buffer, like a memory-mapped file. Big files are split into
+ * line-aligned chunks that are parsed on the common fork-join pool. Each chunk fills its own result,
+ * and the results are merged in file order afterwards, so nothing is locked and later lines
+ * still win over earlier ones like in a sequential parse.
+ */
+abstract class ConfParser<T> {
+
+	/** Files smaller than this are parsed on the calling thread. */
+	private static final int MIN_CHUNK_SIZE = 256 * 1024;
+
+	protected abstract T newResult();
+
+	/**
+	 * Parses the line from start to end, not including the line break.
+	 */
+	protected abstract void parseLine(ByteBuffer buf, int start, int end, T result);
+
+	protected abstract void merge(T into, T chunk);
+
+	public T parse(File f) throws IOException {
+		ByteBuffer buf;
+		try(RandomAccessFile raf = new RandomAccessFile(f, "r"); FileChannel channel = raf.getChannel()) {
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		return parse(buf);
+	}
+
+	/**
+	 * @param buf The whole file, starting at index 0. Only absolute reads are used on it.
+	 */
+	public T parse(final ByteBuffer buf) {
+		int size = buf.limit();
+		int chunks = Math.max(1, Math.min(ForkJoinPool.getCommonPoolParallelism(), size / MIN_CHUNK_SIZE));
+		if(chunks == 1) {
+			T rv = newResult();
+			parseChunk(buf, 0, size, rv);
+			return rv;
+		}
+
+		List<Callable<T>> tasks = new ArrayList<>(chunks);
+		int start = 0;
+		for(int k = 1; k <= chunks && start < size; k++) {
+			int end = k == chunks ? size : nextLine(buf, (int)((long)size * k / chunks));
+			final int chunkStart = start, chunkEnd = end;
+			tasks.add(() -> {
+				T rv = newResult();
+				parseChunk(buf, chunkStart, chunkEnd, rv);
+				return rv;
+			});
+			start = end;
+		}
+
+		T rv = null;
+		try {
+			for(Future<T> future : ForkJoinPool.commonPool().invokeAll(tasks)) {
+				if(rv == null) {
+					rv = future.get();
+				} else {
+					merge(rv, future.get());
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while reading conf file", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			if(e.getCause() instanceof Error) {
+				throw (Error)e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		}
+		return rv;
+	}
+
+	/**
+	 * @return The position after the next line break at or after pos, or the end of the buffer
+	 */
+	private static int nextLine(ByteBuffer buf, int pos) {
+		while(pos < buf.limit() && buf.get(pos++) != '\n') {
+		}
+		return pos;
+	}
+
+	private void parseChunk(ByteBuffer buf, int start, int end, T result) {
+		while(start < end) {
+			int lineEnd = start;
+			while(lineEnd < end && buf.get(lineEnd) != '\n') {
+				lineEnd++;
+			}
+			int contentEnd = lineEnd;
+			if(contentEnd > start && buf.get(contentEnd - 1) == '\r') {
+				contentEnd--;
+			}
+			parseLine(buf, start, contentEnd, result);
+			start = lineEnd + 1;
+		}
+	}
+
+	/**
+	 * @return The position of the first c from start up to end, or -1
+	 */
+	static int indexOf(ByteBuffer buf, byte c, int start, int end) {
+		for(int k = start; k < end; k++) {
+			if(buf.get(k) == c) {
+				return k;
+			}
+		}
+		return -1;
+	}
+
+	static String getString(ByteBuffer buf, int start, int end) {
+		byte[] bytes = new byte[end - start];
+		boolean ascii = true;
+		for(int k = 0; k < bytes.length; k++) {
+			bytes[k] = buf.get(start + k);
+			ascii &= bytes[k] >= 0;
+		}
+		return new String(bytes, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+	}
+
+}
@@ -0,0 +1,153 @@
+package immibis.bon.mcp;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * The files of an MCP installation: either an extracted MCP directory, or an MCP zip archive
+ * that is read in place. Paths are relative to the MCP root and use /, like "conf/joined.srg".
+ */
+public abstract class ConfSource implements Closeable {
+
+	public abstract boolean exists(String path);
+
+	/**
+	 * @return The contents of the file. Only absolute reads should be used on it, so it can be shared between threads.
+	 */
+	public abstract ByteBuffer read(String path) throws IOException;
+
+	/**
+	 * Opens an MCP directory, or an MCP zip archive if mcp is a file.
+	 */
+	public static ConfSource open(File mcp) throws IOException {
+		if(mcp.isFile()) {
+			return new Zip(mcp);
+		}
+		return new Directory(mcp);
+	}
+
+	/**
+	 * Returns a string that changes whenever the MCP files are changed, without reading them:
+	 * the path, sizes and modification times of the archive or of the files in the conf folder.
+	 */
+	public static String getFingerprint(File mcp) throws IOException {
+		StringBuilder rv = new StringBuilder(mcp.getCanonicalPath());
+		File[] files = mcp.isFile() ? new File[] {mcp} : new File(mcp, "conf").listFiles();
+		if(files != null) {
+			Arrays.sort(files);
+			for(File f : files) {
+				rv.append('|').append(f.getName()).append(':').append(f.length()).append(':').append(f.lastModified());
+			}
+		}
+		return rv.toString();
+	}
+
+	private static class Directory extends ConfSource {
+		private final File dir;
+
+		Directory(File dir) {
+			this.dir = dir;
+		}
+
+		@Override
+		public boolean exists(String path) {
+			return new File(dir, path).isFile();
+		}
+
+		@Override
+		public ByteBuffer read(String path) throws IOException {
+			try(RandomAccessFile raf = new RandomAccessFile(new File(dir, path), "r"); FileChannel channel = raf.getChannel()) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public String toString() {
+			return dir.toString();
+		}
+	}
+
+	/**
+	 * Reads entries through the archive's central directory, so nothing is extracted to disk.
+	 * The conf folder can be at the root of the archive or inside a top-level folder.
+	 */
+	private static class Zip extends ConfSource {
+		private final File file;
+		private final ZipFile zip;
+		private final String root;
+
+		Zip(File file) throws IOException {
+			this.file = file;
+			this.zip = new ZipFile(file);
+
+			// the shortest path that has a conf folder in it
+			String root = "";
+			int rootLength = Integer.MAX_VALUE;
+			for(Enumeration<? extends ZipEntry> e = zip.entries(); e.hasMoreElements();) {
+				String name = e.nextElement().getName();
+				int k = name.indexOf("conf/");
+				if(k >= 0 && (k == 0 || name.charAt(k - 1) == '/') && k < rootLength) {
+					root = name.substring(0, k);
+					rootLength = k;
+				}
+			}
+			this.root = root;
+		}
+
+		@Override
+		public boolean exists(String path) {
+			ZipEntry entry = zip.getEntry(root + path);
+			return entry != null && !entry.isDirectory();
+		}
+
+		@Override
+		public ByteBuffer read(String path) throws IOException {
+			ZipEntry entry = zip.getEntry(root + path);
+			if(entry == null || entry.isDirectory()) {
+				throw new IOException(path + " not found in " + file);
+			}
+
+			byte[] data = new byte[entry.getSize() >= 0 ? (int)entry.getSize() : 65536];
+			int length = 0;
+			try(InputStream in = zip.getInputStream(entry)) {
+				int read;
+				while((read = in.read(data, length, data.length - length)) >= 0) {
+					length += read;
+					if(length == data.length) {
+						int next = in.read();
+						if(next < 0) {
+							break;
+						}
+						data = Arrays.copyOf(data, data.length * 2);
+						data[length++] = (byte)next;
+					}
+				}
+			}
+			return ByteBuffer.wrap(data, 0, length).slice();
+		}
+
+		@Override
+		public void close() throws IOException {
+			zip.close();
+		}
+
+		@Override
+		public String toString() {
+			return file.toString();
+		}
+	}
+
+}
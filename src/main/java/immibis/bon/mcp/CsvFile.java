@@ -1,33 +1,66 @@
 package immibis.bon.mcp;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public abstract class CsvFile {
 
-	@SuppressWarnings("resource")
+	/**
+	 * Reads the searge and MCP names of the lines for the given sides. Only the first three columns
+	 * (searge, name, side) are looked at, anything after the third comma is skipped.
+	 */
 	public static Map<String, String> read(File f, int[] n_sides) throws IOException {
-		Map<String, String> data = new HashMap<String, String>();
-		Scanner in = new Scanner(new BufferedReader(new FileReader(f)));
-
-		try {
-			in.useDelimiter(",");
-			while(in.hasNextLine()) {
-				String searge = in.next();
-				String name = in.next();
-				String side = in.next();
-				/*String desc =*/ in.nextLine();
-				try {
-					if(sideIn(Integer.parseInt(side), n_sides)) {
-						data.put(searge, name);
+		return parser(n_sides).parse(f);
+	}
+
+	/**
+	 * @param buf The whole file, starting at index 0
+	 */
+	public static Map<String, String> read(ByteBuffer buf, int[] n_sides) {
+		return parser(n_sides).parse(buf);
+	}
+
+	private static ConfParser<Map<String, String>> parser(final int[] n_sides) {
+		return new ConfParser<Map<String, String>>() {
+			@Override
+			protected Map<String, String> newResult() {
+				return new HashMap<String, String>();
+			}
+
+			@Override
+			protected void parseLine(ByteBuffer buf, int start, int end, Map<String, String> data) {
+				int nameStart = indexOf(buf, (byte)',', start, end) + 1;
+				int sideStart = nameStart == 0 ? 0 : indexOf(buf, (byte)',', nameStart, end) + 1;
+				int sideEnd = sideStart == 0 ? -1 : indexOf(buf, (byte)',', sideStart, end);
+				if(sideEnd < 0) {
+					return;
+				}
+
+				// lines with a side that isn't a number (like the header) are skipped
+				int side = 0;
+				boolean negative = sideStart < sideEnd && buf.get(sideStart) == '-';
+				for(int k = negative ? sideStart + 1 : sideStart; k < sideEnd; k++) {
+					byte b = buf.get(k);
+					if(b < '0' || b > '9') {
+						return;
 					}
-				} catch (NumberFormatException e) {
+					side = side * 10 + (b - '0');
+				}
+				if(sideEnd == (negative ? sideStart + 1 : sideStart)) {
+					return;
+				}
+
+				if(sideIn(negative ? -side : side, n_sides)) {
+					data.put(getString(buf, start, nameStart - 1), getString(buf, nameStart, sideStart - 1));
 				}
 			}
-		} finally {
-			in.close();
-		}
-		return data;
+
+			@Override
+			protected void merge(Map<String, String> into, Map<String, String> chunk) {
+				into.putAll(chunk);
+			}
+		};
 	}
 
 	private static boolean sideIn(int i, int[] ar) {
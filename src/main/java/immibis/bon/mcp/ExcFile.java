@@ -1,11 +1,12 @@
 package immibis.bon.mcp;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class ExcFile {
 
-	public Map<String, String[]> exceptions = new HashMap<String, String[]>();
+	public Map<String, String[]> exceptions;
 
 	private static final String[] EMPTY_STRING_ARRAY = new String[0];
 
@@ -20,31 +21,59 @@ public class ExcFile {
 	}
 
 	public ExcFile(File f) throws IOException {
+		exceptions = parser().parse(f);
+	}
+
+	/**
+	 * @param buf The whole file, starting at index 0
+	 */
+	public ExcFile(ByteBuffer buf) {
+		exceptions = parser().parse(buf);
+	}
+
+	private static ConfParser<Map<String, String[]>> parser() {
 		//example line:
 		//net/minecraft/src/NetClientHandler.<init>(Lnet/minecraft/client/Minecraft;Ljava/lang/String;I)V=java/net/UnknownHostException,java/io/IOException|p_i42_1_,p_i42_2_,p_i42_3_
 
-		@SuppressWarnings("resource")
-		Scanner in = new Scanner(new FileReader(f));
-		try {
-			while(in.hasNextLine()) {
-				if(in.hasNext("#") || !in.hasNext("\\.")) {
-					in.nextLine();
-					continue;
+		return new ConfParser<Map<String, String[]>>() {
+			@Override
+			protected Map<String, String[]> newResult() {
+				return new HashMap<String, String[]>();
+			}
+
+			@Override
+			protected void parseLine(ByteBuffer buf, int start, int end, Map<String, String[]> data) {
+				while(start < end && (buf.get(start) == ' ' || buf.get(start) == '\t')) {
+					start++;
 				}
-				in.useDelimiter("\\.");
-				String clazz = in.next();
-				in.useDelimiter("\\(");
-				String func = in.next().substring(1);
-				in.useDelimiter("=");
-				String desc = in.next();
-				in.useDelimiter("\\|");
-				String excs = in.next().substring(1);
-				in.nextLine(); // skip rest of line
-				exceptions.put(clazz + "/" + func + desc, excs.split(","));
+				if(start == end || buf.get(start) == '#') {
+					return;
+				}
+
+				int dot = indexOf(buf, (byte)'.', start, end);
+				int paren = dot < 0 ? -1 : indexOf(buf, (byte)'(', dot, end);
+				int equals = paren < 0 ? -1 : indexOf(buf, (byte)'=', paren, end);
+				if(equals < 0) {
+					return;
+				}
+				int excsEnd = indexOf(buf, (byte)'|', equals, end);
+				if(excsEnd < 0) {
+					excsEnd = end;
+				}
+				if(excsEnd == equals + 1) {
+					return; // only parameter names, no exceptions
+				}
+
+				// clazz.func(desc) becomes clazz/func(desc)
+				String key = getString(buf, start, dot) + "/" + getString(buf, dot + 1, equals);
+				data.put(key, getString(buf, equals + 1, excsEnd).split(","));
 			}
-		} finally {
-			in.close();
-		}
+
+			@Override
+			protected void merge(Map<String, String[]> into, Map<String, String[]> chunk) {
+				into.putAll(chunk);
+			}
+		};
 	}
 
 }
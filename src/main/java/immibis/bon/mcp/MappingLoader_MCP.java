@@ -2,19 +2,34 @@ package immibis.bon.mcp;
 
 import immibis.bon.IProgressListener;
 import immibis.bon.Mapping;
+import immibis.bon.MappingPair;
+import immibis.bon.NameMapping;
 import immibis.bon.NameSet;
 import immibis.bon.NameSet.Side;
+import immibis.bon.SymbolTable;
+import immibis.bon.io.ClassCollectionFactory;
+import immibis.bon.io.MappedMapping;
+import immibis.bon.io.MappingCompiler;
 import immibis.bon.io.MappingFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class MappingLoader_MCP {
 
@@ -34,161 +49,325 @@ public class MappingLoader_MCP {
 	private final String mcVer;
 	private final File mcpDir;
 	private final int[] sideNumbers;
-	private final File srgFile, excFile;
+	private final String srgFile, excFile; // paths in the MCP directory or archive
+	private final NameSet obfNS, srgNS, mcpNS;
+	private final File cacheDir; // null to not use compiled mappings
+	private String srgKey, csvKey; // source keys of the compiled layers, computed when first needed; guarded by this
+
 	// forward: obf -> searge -> mcp
 	// reverse: mcp -> searge -> obf
-	private final Mapping forwardSRG;
-	private Mapping reverseSRG, forwardCSV, reverseCSV;
-
-	private Map<String, Set<String>> srgMethodDescriptors = new HashMap<String, Set<String>>(); // SRG name -> SRG descriptors
-	private Map<String, Set<String>> srgMethodOwners = new HashMap<String, Set<String>>(); // SRG name -> SRG owners
-	private Map<String, Set<String>> srgFieldOwners = new HashMap<String, Set<String>>(); // SRG name -> SRG owners
-
-	private ExcFile excFileData;
+	// each layer is loaded when it's first needed, see load; guarded by this
+	private Mapping forwardSRG, reverseSRG, forwardCSV, reverseCSV;
+	private boolean srgLoaded, csvLoaded;
 
 	public MappingLoader_MCP(String mcVer, Side side, File mcpDir, IProgressListener progress) throws IOException, CantLoadMCPMappingException {
+		this(mcVer, side, mcpDir, null, progress);
+	}
+
+	/**
+	 * Nothing is loaded until a mapping is asked for. With a cache directory, each layer is taken from its
+	 * compiled file if that is up to date, otherwise the layer is loaded from the conf files and compiled.
+	 * The compiled files are also used to load the mappings again after {@link #unload()}.
+	 *
+	 * @param mcpDir An MCP directory, or an MCP zip archive which is read without extracting it
+	 * @param cacheDir Directory for the compiled mappings, see {@link MappingCompiler}. Null to always load the conf files.
+	 */
+	public MappingLoader_MCP(String mcVer, Side side, File mcpDir, File cacheDir, IProgressListener progress) throws IOException, CantLoadMCPMappingException {
 		this.mcVer = mcVer;
 		this.mcpDir = mcpDir;
 		this.side = side;
 
-		switch(side) {
-			case UNIVERSAL:
-				sideNumbers = new int[]{2, 1, 0};
-				if(new File(mcpDir, "conf/packaged.srg").exists()) {
-					srgFile = new File(mcpDir, "conf/packaged.srg");
-					excFile = new File(mcpDir, "conf/packaged.exc");
-				} else {
-					srgFile = new File(mcpDir, "conf/joined.srg");
-					excFile = new File(mcpDir, "conf/joined.exc");
-				}
-				break;
+		try(ConfSource conf = ConfSource.open(mcpDir)) {
+			switch(side) {
+				case UNIVERSAL:
+					sideNumbers = new int[]{2, 1, 0};
+					if(conf.exists("conf/packaged.srg")) {
+						srgFile = "conf/packaged.srg";
+						excFile = "conf/packaged.exc";
+					} else {
+						srgFile = "conf/joined.srg";
+						excFile = "conf/joined.exc";
+					}
+					break;
 
-			case CLIENT:
-				sideNumbers = new int[]{0};
-				srgFile = new File(mcpDir, "conf/client.srg");
+				case CLIENT:
+					sideNumbers = new int[]{0};
+					srgFile = "conf/client.srg";
 
-				if(new File(mcpDir, "conf/joined.exc").exists()) {
-					excFile = new File(mcpDir, "conf/joined.exc");
-				} else {
-					excFile = new File(mcpDir, "conf/client.exc");
-				}
+					if(conf.exists("conf/joined.exc")) {
+						excFile = "conf/joined.exc";
+					} else {
+						excFile = "conf/client.exc";
+					}
 
-				break;
+					break;
 
-			case SERVER:
-				sideNumbers = new int[]{1};
-				srgFile = new File(mcpDir, "conf/server.srg");
+				case SERVER:
+					sideNumbers = new int[]{1};
+					srgFile = "conf/server.srg";
 
-				if(new File(mcpDir, "conf/joined.exc").exists()) {
-					excFile = new File(mcpDir, "conf/joined.exc");
-				} else {
-					excFile = new File(mcpDir, "conf/server.exc");
-				}
+					if(conf.exists("conf/joined.exc")) {
+						excFile = "conf/joined.exc";
+					} else {
+						excFile = "conf/server.exc";
+					}
 
-				break;
+					break;
 
-			default: throw new AssertionError("side is " + side);
-		}
+				default: throw new AssertionError("side is " + side);
+			}
 
-		NameSet obfNS = new NameSet(NameSet.Type.OBF, side, mcVer);
-		NameSet srgNS = new NameSet(NameSet.Type.SRG, side, mcVer);
-		NameSet mcpNS = new NameSet(NameSet.Type.MCP, side, mcVer);
+			obfNS = new NameSet(NameSet.Type.OBF, side, mcVer);
+			srgNS = new NameSet(NameSet.Type.SRG, side, mcVer);
+			mcpNS = new NameSet(NameSet.Type.MCP, side, mcVer);
+		}
+		this.cacheDir = cacheDir;
+	}
 
-		forwardSRG = new Mapping(obfNS, srgNS);
-		reverseSRG = new Mapping(srgNS, obfNS);
+	/**
+	 * Loads the SRG mappings, and also the CSV mappings if withCSV is set, unless they are loaded already.
+	 * The CSV mappings are built from the owners and descriptors of the SRG names, so they always need the SRG mappings.
+	 *
+	 * @return Whether anything had to be loaded
+	 */
+	public synchronized boolean load(boolean withCSV, IProgressListener progress) throws IOException {
+		if(srgLoaded && (csvLoaded || !withCSV)) {
+			return false;
+		}
+		try(ConfSource conf = ConfSource.open(mcpDir)) {
+			if(cacheDir != null && !srgLoaded) {
+				loadCompiled(conf, false);
+			}
+			if(cacheDir != null && withCSV && !csvLoaded) {
+				loadCompiled(conf, true);
+			}
+			if(srgLoaded && (csvLoaded || !withCSV)) {
+				return true;
+			}
 
-		forwardCSV = new Mapping(srgNS, mcpNS);
-		reverseCSV = new Mapping(mcpNS, srgNS);
+			boolean builtSRG = !srgLoaded, builtCSV = withCSV && !csvLoaded;
+			load(conf, withCSV, progress);
+			if(cacheDir != null && builtSRG) {
+				compile(conf, false);
+			}
+			if(cacheDir != null && builtCSV) {
+				compile(conf, true);
+			}
+		}
+		return true;
+	}
 
-		if(progress != null) {
-			progress.setMax(3);
+	/**
+	 * Returns the compiled file of the SRG layer, or of the CSV layer if csv is set. Each has its own source key,
+	 * so only the conf files a layer is built from are hashed; the CSV layer also depends on the SRG files.
+	 * Must hold the lock of this.
+	 */
+	private File getCompiledFile(ConfSource conf, boolean csv) throws IOException {
+		if(srgKey == null) {
+			srgKey = MappingCompiler.getSourceKey("srg", conf.read(srgFile), conf.read(excFile));
 		}
-		if(progress != null) {
-			progress.set(0);
+		if(csv && csvKey == null) {
+			csvKey = MappingCompiler.getSourceKey("csv " + Arrays.toString(sideNumbers) + " " + srgKey, conf.read("conf/fields.csv"), conf.read("conf/methods.csv"));
 		}
-		loadEXCFile();
-		if(progress != null) {
-			progress.set(1);
+		return new File(cacheDir, (csv ? csvKey : srgKey) + ".bonmap");
+	}
+
+	/**
+	 * Loads the SRG or CSV layer from its compiled file, if there is an up to date one. Must hold the lock of this.
+	 */
+	private void loadCompiled(ConfSource conf, boolean csv) throws IOException {
+		File compiledFile = getCompiledFile(conf, csv);
+		if(!compiledFile.isFile()) {
+			return;
 		}
-		loadSRGMapping();
-		if(progress != null) {
-			progress.set(2);
+		try {
+			if(csv) {
+				Mapping[] m = MappedMapping.load(compiledFile, csvKey, new NameSet[] {srgNS, mcpNS}, new NameSet[] {mcpNS, srgNS});
+				forwardCSV = m[0];
+				reverseCSV = m[1];
+				csvLoaded = true;
+			} else {
+				Mapping[] m = MappedMapping.load(compiledFile, srgKey, new NameSet[] {obfNS, srgNS}, new NameSet[] {srgNS, obfNS});
+				forwardSRG = m[0];
+				reverseSRG = m[1];
+				srgLoaded = true;
+			}
+			ClassCollectionFactory.markCacheFileUsed(compiledFile);
+		} catch (IOException | BufferUnderflowException | IndexOutOfBoundsException e) {
+			if(!MappingFactory.quiet) {
+				System.out.println("Ignoring broken compiled mapping " + compiledFile + ": " + e);
+			}
 		}
-		loadCSVMapping();
 	}
 
-	private void loadEXCFile() throws IOException {
-		excFileData = new ExcFile(excFile);
+	/**
+	 * Writes the SRG or CSV layer to its compiled file. Must hold the lock of this.
+	 */
+	private void compile(ConfSource conf, boolean csv) throws IOException {
+		File compiledFile = getCompiledFile(conf, csv);
+		try {
+			if(csv) {
+				MappingCompiler.compile(compiledFile, csvKey, forwardCSV, reverseCSV);
+			} else {
+				MappingCompiler.compile(compiledFile, srgKey, forwardSRG, reverseSRG);
+			}
+		} catch (IOException e) {
+			if(!MappingFactory.quiet) {
+				System.out.println("Unable to write compiled mapping " + compiledFile + ": " + e);
+			}
+		}
 	}
 
-	private void loadSRGMapping() throws IOException, CantLoadMCPMappingException {
-		SrgFile srg = new SrgFile(srgFile, false);
-
-		forwardSRG.setDefaultPackage("net/minecraft/src/");
-		reverseSRG.addPrefix("net/minecraft/src/", "");
+	/**
+	 * Forgets the loaded mappings to free their memory. Mappings that were handed out stay usable,
+	 * and the next call that needs them loads them again.
+	 */
+	public synchronized void unload() {
+		forwardSRG = reverseSRG = forwardCSV = reverseCSV = null;
+		srgLoaded = csvLoaded = false;
+	}
 
-		for(Map.Entry<String, String> entry : srg.classes.entrySet()) {
-			String obfClass = entry.getKey();
-			String srgClass = entry.getValue();
+	private void load(ConfSource conf, boolean withCSV, IProgressListener progress) throws IOException {
+		boolean loadSRG = !srgLoaded, loadCSV = withCSV && !csvLoaded;
 
-			forwardSRG.setClass(obfClass, srgClass);
-			reverseSRG.setClass(srgClass, obfClass);
+		// one step for each file, and one for linking them
+		if(progress != null) {
+			progress.setMax((loadSRG ? 2 : 0) + (loadCSV ? 2 : 0) + 1);
+			progress.set(0);
+		}
+		AtomicInteger stepsDone = new AtomicInteger();
+
+		// the files don't depend on each other, so the EXC and CSV files are parsed
+		// while the SRG file is loaded on this thread; only linking needs all of them
+		Future<ExcFile> excFileData = null;
+		Future<Map<String, String>> fieldNames = null, methodNames = null;
+		if(loadSRG) {
+			ByteBuffer excData = conf.read(excFile);
+			excFileData = submit(() -> new ExcFile(excData), progress, stepsDone);
+		}
+		if(loadCSV) {
+			ByteBuffer fieldsData = conf.read("conf/fields.csv"), methodsData = conf.read("conf/methods.csv");
+			fieldNames = submit(() -> CsvFile.read(fieldsData, sideNumbers), progress, stepsDone);
+			methodNames = submit(() -> CsvFile.read(methodsData, sideNumbers), progress, stepsDone);
 		}
 
-		for(Map.Entry<String, String> entry : srg.fields.entrySet()) {
-			String obfOwnerAndName = entry.getKey();
-			String srgName = entry.getValue();
-
-			String obfOwner = obfOwnerAndName.substring(0, obfOwnerAndName.lastIndexOf('/'));
-			String obfName = obfOwnerAndName.substring(obfOwnerAndName.lastIndexOf('/') + 1);
+		if(loadSRG) {
+			MappingPair srg = new MappingPair(obfNS, srgNS, new SymbolTable());
+			forwardSRG = srg.forward;
+			reverseSRG = srg.reverse;
+			loadSRGMapping(srg, conf.read(srgFile));
+			stepDone(progress, stepsDone);
+
+			linkExceptions(get(excFileData));
+			// the mappings are shared by all remaps from now on
+			srg.freeze();
+			srgLoaded = true;
+		}
 
-			String srgOwner = srg.classes.get(obfOwner);
+		if(loadCSV) {
+			// not the table of the SRG mappings: those may already be in use by other threads,
+			// and lookups in a table are only safe while nothing is interned into it
+			SymbolTable symbols = new SymbolTable();
+			NameMapping forward = new NameMapping(srgNS, mcpNS, symbols);
+			Mapping reverse = new Mapping(mcpNS, srgNS, symbols);
+			loadCSVMapping(forward, reverse, get(fieldNames), get(methodNames));
+			forward.freeze();
+			reverse.freeze();
+			forwardCSV = forward;
+			reverseCSV = reverse;
+			csvLoaded = true;
+		}
+		stepDone(progress, stepsDone);
+	}
 
-			// Enum values don't use the CSV and don't start with field_
-			if(srgName.startsWith("field_")) {
-				if(srgFieldOwners.containsKey(srgName)) {
-					System.out.println("SRG field " + srgName + " appears in multiple classes (at least " + srgFieldOwners.get(srgName) + " and " + srgOwner + ")");
-				}
+	private static <T> Future<T> submit(final Callable<T> task, final IProgressListener progress, final AtomicInteger stepsDone) {
+		return ForkJoinPool.commonPool().submit(() -> {
+			T rv = task.call();
+			stepDone(progress, stepsDone);
+			return rv;
+		});
+	}
 
-				Set<String> owners = srgFieldOwners.get(srgName);
-				if(owners == null) {
-					srgFieldOwners.put(srgName, owners = new HashSet<String>());
-				}
-				owners.add(srgOwner);
+	private static void stepDone(IProgressListener progress, AtomicInteger stepsDone) {
+		// counted under the lock, so the values reach the listener in order
+		if(progress != null) {
+			synchronized(progress) {
+				progress.set(stepsDone.incrementAndGet());
 			}
+		}
+	}
 
-			forwardSRG.setField(obfOwner, obfName, srgName);
-			reverseSRG.setField(srgOwner, srgName, obfName);
+	private static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while loading MCP mappings", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException) {
+				throw (IOException)e.getCause();
+			}
+			if(e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException)e.getCause();
+			}
+			if(e.getCause() instanceof Error) {
+				throw (Error)e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
 		}
+	}
+
+	private void loadSRGMapping(final MappingPair srg, ByteBuffer srgData) throws IOException {
+		forwardSRG.setDefaultPackage("net/minecraft/src/");
+		reverseSRG.addPrefix("net/minecraft/src/", "");
 
-		for(Map.Entry<String, String> entry : srg.methods.entrySet()) {
-			String obfOwnerNameAndDesc = entry.getKey();
-			String srgName = entry.getValue();
+		// entries go straight into the mappings; SRG files list all classes before their members,
+		// so the class entries needed to map method descriptors are there by the time they're used
+		SrgFile.read(srgData, new SrgFile.EntryVisitor() {
+			@Override
+			public void visitClass(String obfClass, String srgClass) {
+				srg.setClass(obfClass, srgClass);
+			}
 
-			String obfOwnerAndName = obfOwnerNameAndDesc.substring(0, obfOwnerNameAndDesc.indexOf('('));
-			String obfOwner = obfOwnerAndName.substring(0, obfOwnerAndName.lastIndexOf('/'));
-			String obfName = obfOwnerAndName.substring(obfOwnerAndName.lastIndexOf('/') + 1);
-			String obfDesc = obfOwnerNameAndDesc.substring(obfOwnerNameAndDesc.indexOf('('));
+			@Override
+			public void visitField(String obfOwner, String obfName, String srgOwner, String srgName) {
+				srg.setField(obfOwner, obfName, srgOwner, srgName);
+			}
 
-			String srgDesc = forwardSRG.mapMethodDescriptor(obfDesc);
-			String srgOwner = srg.classes.get(obfOwner);
+			@Override
+			public void visitMethod(String obfOwner, String obfName, String obfDesc, String srgOwner, String srgName, String srgFileDesc) {
+				// the descriptor is mapped rather than taken from the file, so classes only mapped by the default package match too
+				String srgDesc = forwardSRG.mapMethodDescriptor(obfDesc);
 
-			Set<String> srgMethodDescriptorsThis = srgMethodDescriptors.get(srgName);
-			if(srgMethodDescriptorsThis == null) {
-				srgMethodDescriptors.put(srgName, srgMethodDescriptorsThis = new HashSet<String>());
+				srg.setMethod(obfOwner, obfName, obfDesc, srgOwner, srgName, srgDesc);
 			}
-			srgMethodDescriptorsThis.add(srgDesc);
+		});
+	}
 
-			Set<String> srgMethodOwnersThis = srgMethodOwners.get(srgName);
-			if(srgMethodOwnersThis == null) {
-				srgMethodOwners.put(srgName, srgMethodOwnersThis = new HashSet<String>());
+	/**
+	 * Adds the exceptions of the EXC file to the methods of forwardSRG. The EXC file uses SRG names,
+	 * so this has to wait until the SRG file is loaded.
+	 */
+	private void linkExceptions(ExcFile excFileData) {
+		final List<String[]> methods = new ArrayList<String[]>();
+		forwardSRG.accept(new Mapping.EntryVisitor() {
+			@Override
+			public void visitClass(String in, String out) {
 			}
-			srgMethodOwnersThis.add(srgOwner);
 
-			forwardSRG.setMethod(obfOwner, obfName, obfDesc, srgName);
-			reverseSRG.setMethod(srgOwner, srgName, srgDesc, obfName);
+			@Override
+			public void visitField(String clazz, String name, String out) {
+			}
+
+			@Override
+			public void visitMethod(String clazz, String name, String desc, String out) {
+				methods.add(new String[] {clazz, name, desc, out});
+			}
+		});
 
-			String[] srgExceptions = excFileData.getExceptionClasses(srgOwner, srgName, srgDesc);
+		for(String[] method : methods) {
+			String obfOwner = method[0], obfName = method[1], obfDesc = method[2], srgName = method[3];
+			String[] srgExceptions = excFileData.getExceptionClasses(forwardSRG.getClass(obfOwner), srgName, forwardSRG.mapMethodDescriptor(obfDesc));
 			if(srgExceptions.length > 0) {
 				List<String> obfExceptions = new ArrayList<String>();
 				for(String s : srgExceptions) {
@@ -199,26 +378,69 @@ public class MappingLoader_MCP {
 		}
 	}
 
-	private void loadCSVMapping() throws IOException, CantLoadMCPMappingException {
-		Map<String, String> fieldNames = CsvFile.read(new File(mcpDir, "conf/fields.csv"), sideNumbers);
-		Map<String, String> methodNames = CsvFile.read(new File(mcpDir, "conf/methods.csv"), sideNumbers);
+	/**
+	 * SRG names are unique, so forwardCSV maps them by name alone. MCP names aren't, so reverseCSV has an entry
+	 * for each SRG member that has a CSV name, under the member's own class and descriptor from reverseSRG.
+	 */
+	private void loadCSVMapping(final NameMapping forward, final Mapping reverse, final Map<String, String> fieldNames, final Map<String, String> methodNames) {
+		final Map<String, Set<String>> srgFieldOwners = new HashMap<String, Set<String>>(); // SRG name -> SRG owners
+		final Set<String> srgMethodNames = new HashSet<String>();
+		final boolean[] libraryMembers = new boolean[1];
+		reverseSRG.accept(new Mapping.EntryVisitor() {
+			@Override
+			public void visitClass(String in, String out) {
+			}
+
+			@Override
+			public void visitField(String srgOwner, String srgName, String obfName) {
+				libraryMembers[0] |= Mapping.isLibraryClass(srgOwner);
+
+				// Enum values don't use the CSV and don't start with field_
+				if(!srgName.startsWith("field_")) {
+					return;
+				}
+				if(srgFieldOwners.containsKey(srgName)) {
+					System.out.println("SRG field " + srgName + " appears in multiple classes (at least " + srgFieldOwners.get(srgName) + " and " + srgOwner + ")");
+				}
+
+				Set<String> owners = srgFieldOwners.get(srgName);
+				if(owners == null) {
+					srgFieldOwners.put(srgName, owners = new HashSet<String>());
+				}
+				owners.add(srgOwner);
+
+				String mcpName = fieldNames.get(srgName);
+				if(mcpName != null) {
+					reverse.setField(srgOwner, mcpName, srgName);
+				}
+			}
+
+			@Override
+			public void visitMethod(String srgOwner, String srgName, String srgDesc, String obfName) {
+				libraryMembers[0] |= Mapping.isLibraryClass(srgOwner);
+				srgMethodNames.add(srgName);
+
+				String mcpName = methodNames.get(srgName);
+				if(mcpName != null) {
+					reverse.setMethod(srgOwner, mcpName, srgDesc, srgName);
+				}
+			}
+		});
+
+		// the names come from the SRG members, so if none of those is in a library class, no name entry applies to one
+		forward.setNamesInLibraries(libraryMembers[0]);
 
 		for(Map.Entry<String, String> entry : fieldNames.entrySet()) {
 			String srgName = entry.getKey();
 			String mcpName = entry.getValue();
 
-			if(srgFieldOwners.get(srgName) == null) {
+			if(!srgFieldOwners.containsKey(srgName)) {
 				if(!MappingFactory.quiet) {
 					System.out.println("Field exists in CSV but not in SRG: " + srgName + " (CSV name: " + mcpName + ")");
 				}
 				// these are names from old versions that have not been cleaned up
 			} else {
-				for(String srgOwner : srgFieldOwners.get(srgName)) {
-					String mcpOwner = srgOwner;
-
-					forwardCSV.setField(srgOwner, srgName, mcpName);
-					reverseCSV.setField(mcpOwner, mcpName, srgName);
-				}
+				forward.setFieldName(srgName, mcpName);
 			}
 		}
 
@@ -226,46 +448,71 @@ public class MappingLoader_MCP {
 			String srgName = entry.getKey();
 			String mcpName = entry.getValue();
 
-			if(srgMethodOwners.get(srgName) == null) {
+			if(!srgMethodNames.contains(srgName)) {
 				if(!MappingFactory.quiet) {
 					System.out.println("Method exists in CSV but not in SRG: " + srgName + " (CSV name: " + mcpName + ")");
 				}
 				// these are names from old versions that have not been cleaned up
 			} else {
-				for(String srgOwner : srgMethodOwners.get(srgName)) {
-					for(String srgDesc : srgMethodDescriptors.get(srgName)) {
-						String mcpOwner = srgOwner;
-						String mcpDesc = srgDesc;
+				forward.setMethodName(srgName, mcpName);
+			}
+		}
+	}
 
-						forwardCSV.setMethod(srgOwner, srgName, srgDesc, mcpName);
-						reverseCSV.setMethod(mcpOwner, mcpName, mcpDesc, srgName);
-					}
-				}
+	/**
+	 * @return Roughly the number of heap bytes used by the mappings loaded so far
+	 */
+	public synchronized long estimateSize() {
+		long rv = 0;
+		for(Mapping m : new Mapping[] {forwardSRG, reverseSRG, forwardCSV, reverseCSV}) {
+			if(m != null) {
+				rv += m.estimateSize();
 			}
 		}
+		// each layer shares one table between its two directions
+		for(Mapping m : new Mapping[] {forwardSRG, forwardCSV}) {
+			if(m != null) {
+				rv += m.getSymbols().estimateSize();
+			}
+		}
+		return rv;
 	}
 
-	public Mapping getReverseSRG() {
+	/**
+	 * Loads the mappings if they aren't yet, like {@link #load(boolean, IProgressListener)} without progress.
+	 */
+	private void loadOnDemand(boolean withCSV) {
+		try {
+			load(withCSV, null);
+		} catch (IOException e) {
+			throw new RuntimeException("Can't load MCP mappings from " + mcpDir, e);
+		}
+	}
+
+	public synchronized Mapping getReverseSRG() {
+		loadOnDemand(false);
 		return reverseSRG;
 	}
 
-	public Mapping getReverseCSV() {
+	public synchronized Mapping getReverseCSV() {
+		loadOnDemand(true);
 		return reverseCSV;
 	}
 
-	public Mapping getForwardSRG() {
+	public synchronized Mapping getForwardSRG() {
+		loadOnDemand(false);
 		return forwardSRG;
 	}
 
-	public Mapping getForwardCSV() {
+	public synchronized Mapping getForwardCSV() {
+		loadOnDemand(true);
 		return forwardCSV;
 	}
 
 	public static String getMCVer(File mcpDir) throws IOException {
-		try {
-			File versionFile = new File(mcpDir, "src/main/resources/mcpmod.info");
-			if(versionFile.exists() && versionFile.isFile()) {
-				Scanner in = new Scanner(versionFile);
+		try(ConfSource conf = ConfSource.open(mcpDir)) {
+			if(conf.exists("src/main/resources/mcpmod.info")) {
+				Scanner in = new Scanner(StandardCharsets.UTF_8.decode(conf.read("src/main/resources/mcpmod.info")).toString());
 				while(in.hasNextLine()) {
 					String line = in.nextLine().trim();
 					if(line.startsWith("\"mcversion\":")) {
@@ -275,9 +522,8 @@ public class MappingLoader_MCP {
 			}
 
 			// LEGACY
-			versionFile = new File(mcpDir, "conf/version.cfg");
-			if(versionFile.exists() && versionFile.isFile()) {
-				Scanner in = new Scanner(versionFile);
+			if(conf.exists("conf/version.cfg")) {
+				Scanner in = new Scanner(StandardCharsets.UTF_8.decode(conf.read("conf/version.cfg")).toString());
 				while(in.hasNextLine()) {
 					String line = in.nextLine().trim();
 					if((line.startsWith("ClientVersion") || line.startsWith("ServerVersion")) && line.contains("=")) {
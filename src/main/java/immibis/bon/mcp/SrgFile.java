@@ -1,6 +1,10 @@
 package immibis.bon.mcp;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 public class SrgFile {
@@ -14,46 +18,157 @@ public class SrgFile {
 		return parts[parts.length - 1];
 	}
 
-	public SrgFile(File f, boolean reverse) throws IOException {
-		@SuppressWarnings("resource")
-		Scanner in = new Scanner(new BufferedReader(new FileReader(f)));
-		try {
-			while(in.hasNextLine()) {
-				if(in.hasNext("CL:")) {
-					in.next();
-					String obf = in.next();
-					String deobf = in.next();
-					if(reverse) {
-						classes.put(deobf, obf);
-					} else {
-						classes.put(obf, deobf);
-					}
-				} else if(in.hasNext("FD:")) {
-					in.next();
-					String obf = in.next();
-					String deobf = in.next();
-					if(reverse) {
-						fields.put(deobf, getLastComponent(obf));
-					} else {
-						fields.put(obf, getLastComponent(deobf));
-					}
-				} else if(in.hasNext("MD:")) {
-					in.next();
-					String obf = in.next();
-					String obfdesc = in.next();
-					String deobf = in.next();
-					String deobfdesc = in.next();
-					if(reverse) {
-						methods.put(deobf + deobfdesc, getLastComponent(obf));
-					} else {
-						methods.put(obf + obfdesc, getLastComponent(deobf));
-					}
+	public SrgFile(File f, final boolean reverse) throws IOException {
+		read(f, new EntryVisitor() {
+			@Override
+			public void visitClass(String obf, String deobf) {
+				if(reverse) {
+					classes.put(deobf, obf);
 				} else {
-					in.nextLine();
+					classes.put(obf, deobf);
 				}
 			}
-		} finally {
-			in.close();
+
+			@Override
+			public void visitField(String obfOwner, String obfName, String deobfOwner, String deobfName) {
+				if(reverse) {
+					fields.put(deobfOwner + "/" + deobfName, obfName);
+				} else {
+					fields.put(obfOwner + "/" + obfName, deobfName);
+				}
+			}
+
+			@Override
+			public void visitMethod(String obfOwner, String obfName, String obfDesc, String deobfOwner, String deobfName, String deobfDesc) {
+				if(reverse) {
+					methods.put(deobfOwner + "/" + deobfName + deobfDesc, obfName);
+				} else {
+					methods.put(obfOwner + "/" + obfName + obfDesc, deobfName);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Receives the entries of an SRG file in file order, see {@link SrgFile#read(File, EntryVisitor)}.
+	 */
+	public interface EntryVisitor {
+		public void visitClass(String obf, String deobf);
+		public void visitField(String obfOwner, String obfName, String deobfOwner, String deobfName);
+		public void visitMethod(String obfOwner, String obfName, String obfDesc, String deobfOwner, String deobfName, String deobfDesc);
+	}
+
+	/**
+	 * Passes the CL, FD and MD lines of an SRG file to the visitor without building any maps.
+	 * The file is memory-mapped and split into tokens byte by byte; other lines (like PK) are skipped.
+	 */
+	public static void read(File f, EntryVisitor visitor) throws IOException {
+		MappedByteBuffer buf;
+		try(RandomAccessFile raf = new RandomAccessFile(f, "r"); FileChannel channel = raf.getChannel()) {
+			buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		read(buf, visitor);
+	}
+
+	/**
+	 * @param buf The whole file, starting at index 0. Only absolute reads are used on it.
+	 */
+	public static void read(ByteBuffer buf, EntryVisitor visitor) throws IOException {
+		Tokenizer in = new Tokenizer(buf);
+		while(in.nextLine()) {
+			if(in.lineStartsWith('C', 'L')) {
+				String obf = in.next();
+				String deobf = in.next();
+				visitor.visitClass(obf, deobf);
+			} else if(in.lineStartsWith('F', 'D')) {
+				String obf = in.next();
+				String deobf = in.next();
+				int obfSep = obf.lastIndexOf('/'), deobfSep = deobf.lastIndexOf('/');
+				if(obfSep < 0 || deobfSep < 0) {
+					throw new IOException("Missing name in SRG line");
+				}
+				visitor.visitField(obf.substring(0, obfSep), obf.substring(obfSep + 1), deobf.substring(0, deobfSep), deobf.substring(deobfSep + 1));
+			} else if(in.lineStartsWith('M', 'D')) {
+				String obf = in.next();
+				String obfDesc = in.next();
+				String deobf = in.next();
+				String deobfDesc = in.next();
+				int obfSep = obf.lastIndexOf('/'), deobfSep = deobf.lastIndexOf('/');
+				if(obfSep < 0 || deobfSep < 0) {
+					throw new IOException("Missing name in SRG line");
+				}
+				visitor.visitMethod(obf.substring(0, obfSep), obf.substring(obfSep + 1), obfDesc, deobf.substring(0, deobfSep), deobf.substring(deobfSep + 1), deobfDesc);
+			}
+		}
+	}
+
+	/**
+	 * Splits the lines of a buffer into whitespace separated tokens.
+	 */
+	private static class Tokenizer {
+		private final ByteBuffer buf;
+		private final int limit;
+		private int pos, lineEnd = -1;
+		private byte[] token = new byte[256];
+
+		Tokenizer(ByteBuffer buf) {
+			this.buf = buf;
+			this.limit = buf.limit();
+		}
+
+		/**
+		 * Moves to the start of the next line.
+		 *
+		 * @return false at the end of the file
+		 */
+		boolean nextLine() {
+			pos = lineEnd + 1;
+			if(pos >= limit) {
+				return false;
+			}
+			lineEnd = pos;
+			while(lineEnd < limit && buf.get(lineEnd) != '\n') {
+				lineEnd++;
+			}
+			return true;
+		}
+
+		/**
+		 * If the line starts with the two characters and a colon, skips them and returns true.
+		 */
+		boolean lineStartsWith(char a, char b) {
+			if(pos + 3 <= lineEnd && buf.get(pos) == a && buf.get(pos + 1) == b && buf.get(pos + 2) == ':') {
+				pos += 3;
+				return true;
+			}
+			return false;
+		}
+
+		String next() throws IOException {
+			while(pos < lineEnd && isSpace(buf.get(pos))) {
+				pos++;
+			}
+			int length = 0;
+			boolean ascii = true;
+			for(; pos < lineEnd; pos++) {
+				byte b = buf.get(pos);
+				if(isSpace(b)) {
+					break;
+				}
+				if(length == token.length) {
+					token = Arrays.copyOf(token, length * 2);
+				}
+				token[length++] = b;
+				ascii &= b >= 0;
+			}
+			if(length == 0) {
+				throw new IOException("Missing name in SRG line");
+			}
+			return new String(token, 0, length, ascii ? StandardCharsets.ISO_8859_1 : StandardCharsets.UTF_8);
+		}
+
+		private static boolean isSpace(byte b) {
+			return b == ' ' || b == '\t' || b == '\r';
 		}
 	}
 
@@ -0,0 +1,125 @@
+package immibis.bon;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class ComposedMappingTest {
+
+	static final NameSet OBF = new NameSet(NameSet.Type.OBF, NameSet.Side.UNIVERSAL, "test");
+	static final NameSet SRG = new NameSet(NameSet.Type.SRG, NameSet.Side.UNIVERSAL, "test");
+	static final NameSet MCP = new NameSet(NameSet.Type.MCP, NameSet.Side.UNIVERSAL, "test");
+
+	static final String[] CLASSES = {"a", "b", "c", "z", "a$1", "p/a", "p/a$1", "p/a$b", "p/a$b$1", "p/q",
+			"paulscode/Sound", "net/minecraft/src/Block", "net/minecraft/src/Unmapped", "java/lang/Object", "some/mod/Class"};
+	static final String[] NAMES = {"d", "e", "f", "x", "field_1_a", "func_2_b", "func_3_c", "func_9_z", "<init>"};
+	static final String[] DESCS = {"()V", "(I)V", "(La;)V", "(Lb;[Lp/a;)Lc;", "(Lnet/minecraft/src/Block;)V"};
+
+	private static Mapping createSrg() {
+		Mapping m = new Mapping(OBF, SRG);
+		m.setDefaultPackage("net/minecraft/src/");
+		m.addPrefix("paulscode/", "paulscode/");
+		m.setClass("a", "net/minecraft/src/Block");
+		m.setClass("b", "net/minecraft/src/Item");
+		m.setClass("p/a", "net/minecraft/src/Entity");
+		m.setClass("p/a$b", "net/minecraft/src/Entity$Inner");
+		m.setField("a", "d", "field_1_a");
+		m.setField("p/a", "d", "field_4_d");
+		m.setMethod("a", "e", "(La;)V", "func_2_b");
+		m.setMethod("a", "e", "()V", "func_3_c");
+		m.setMethod("p/a$b", "f", "(Lb;[Lp/a;)Lc;", "func_5_e");
+		m.setMethod("java/lang/Object", "x", "()V", "func_6_f");
+		m.setExceptions("a", "e", "(La;)V", Arrays.asList("java/io/IOException"));
+		m.freeze();
+		return m;
+	}
+
+	private static Mapping createCsv(boolean namesInLibraries) {
+		NameMapping m = new NameMapping(SRG, MCP);
+		m.setClass("net/minecraft/src/Item", "net/minecraft/item/Item");
+		m.setFieldName("field_1_a", "hardness");
+		m.setFieldName("field_4_d", "posX");
+		m.setMethodName("func_2_b", "onPlaced");
+		m.setMethodName("func_5_e", "update");
+		m.setMethodName("func_6_f", "tick");
+		m.setMethod("net/minecraft/src/Block", "func_3_c", "()V", "onRemoved");
+		// reached directly, since the first mapping leaves these names unchanged
+		m.setField("some/mod/Class", "x", "renamed");
+		m.setMethod("net/minecraft/src/Unmapped", "func_9_z", "()V", "direct");
+		m.setNamesInLibraries(namesInLibraries);
+		m.freeze();
+		return m;
+	}
+
+	private static void assertSameResults(Mapping a, Mapping b) {
+		JoinMapping join = new JoinMapping(a, b);
+		ComposedMapping composed = new ComposedMapping(a, b);
+
+		assertEquals(join.mapsClasses(), composed.mapsClasses());
+		assertEquals(join.mapsFields(), composed.mapsFields());
+		assertEquals(join.mapsMethods(), composed.mapsMethods());
+
+		// twice, so results remembered by the first pass are checked too
+		for(int pass = 0; pass < 2; pass++) {
+			for(String clazz : CLASSES) {
+				assertEquals(clazz, join.getClass(clazz), composed.getClass(clazz));
+				assertEquals(clazz, join.isUnmappable(clazz), composed.isUnmappable(clazz));
+				for(String name : NAMES) {
+					assertEquals(clazz + "." + name, join.getField(clazz, name, "I"), composed.getField(clazz, name, "I"));
+					for(String desc : DESCS) {
+						String what = clazz + "." + name + desc;
+						assertEquals(what, join.getMethod(clazz, name, desc), composed.getMethod(clazz, name, desc));
+						assertEquals(what, join.getExceptions(clazz, name, desc), composed.getExceptions(clazz, name, desc));
+					}
+				}
+			}
+			for(String desc : DESCS) {
+				assertEquals(desc, join.mapMethodDescriptor(desc), composed.mapMethodDescriptor(desc));
+			}
+		}
+	}
+
+	@Test
+	public void testSameAsJoin() {
+		assertSameResults(createSrg(), createCsv(true));
+	}
+
+	@Test
+	public void testSameAsJoinOutsideLibraries() {
+		assertSameResults(createSrg(), createCsv(false));
+	}
+
+	@Test
+	public void testReversed() {
+		// MCP -> SRG -> OBF, as used for reobfuscation
+		Mapping csv = createCsv(true);
+		Mapping reverseCsv = new Mapping(MCP, SRG);
+		reverseCsv.setField("net/minecraft/src/Block", "hardness", "field_1_a");
+		reverseCsv.setMethod("net/minecraft/src/Block", "onPlaced", "(Lnet/minecraft/src/Block;)V", "func_2_b");
+		reverseCsv.freeze();
+		Mapping reverseSrg = new Mapping(SRG, OBF);
+		reverseSrg.setClass("net/minecraft/src/Block", "a");
+		reverseSrg.setClass("net/minecraft/src/Item", "b");
+		reverseSrg.setClass("net/minecraft/src/Entity", "p/a");
+		reverseSrg.setField("net/minecraft/src/Block", "field_1_a", "d");
+		reverseSrg.setMethod("net/minecraft/src/Block", "func_2_b", "(Lnet/minecraft/src/Block;)V", "e");
+		reverseSrg.freeze();
+
+		assertSameResults(reverseCsv, reverseSrg);
+		assertSameResults(csv, reverseCsv);
+	}
+
+	@Test
+	public void testEmpty() {
+		Mapping a = new Mapping(OBF, SRG);
+		a.freeze();
+		Mapping b = new Mapping(SRG, MCP);
+		b.freeze();
+		assertSameResults(a, b);
+		assertSameResults(createSrg(), b);
+		assertSameResults(a, createCsv(true));
+	}
+
+}
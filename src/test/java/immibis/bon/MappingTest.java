@@ -0,0 +1,174 @@
+package immibis.bon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class MappingTest {
+
+	static final NameSet OBF = new NameSet(NameSet.Type.OBF, NameSet.Side.UNIVERSAL, "test");
+	static final NameSet SRG = new NameSet(NameSet.Type.SRG, NameSet.Side.UNIVERSAL, "test");
+	static final NameSet MCP = new NameSet(NameSet.Type.MCP, NameSet.Side.UNIVERSAL, "test");
+
+	@Test
+	public void testClassEntries() {
+		Mapping m = new Mapping(OBF, SRG);
+		m.setClass("a", "net/minecraft/src/Block");
+		m.setDefaultPackage("net/minecraft/src/");
+
+		assertEquals("net/minecraft/src/Block", m.getClass("a"));
+		assertEquals("net/minecraft/src/b", m.getClass("b"));
+		assertEquals("some/pkg/C", m.getClass("some/pkg/C"));
+		assertEquals(null, m.getClass(null));
+	}
+
+	@Test
+	public void testDescriptors() {
+		Mapping m = new Mapping(OBF, SRG);
+		m.setClass("a", "net/minecraft/src/Block");
+
+		assertEquals("I", m.getClass("I"));
+		assertEquals("[Lnet/minecraft/src/Block;", m.getClass("[La;"));
+		assertEquals("(Lnet/minecraft/src/Block;[Lnet/minecraft/src/Block;I)Lnet/minecraft/src/Block;", m.mapMethodDescriptor("(La;[La;I)La;"));
+		assertEquals("[[Lnet/minecraft/src/Block;", m.mapTypeDescriptor("[[La;"));
+		assertEquals("Ljava/util/List<Lnet/minecraft/src/Block;>;", m.parseTypes("Ljava/util/List<La;>;", true, false));
+	}
+
+	@Test
+	public void testInnerClasses() {
+		Mapping m = new Mapping(OBF, SRG);
+		m.setClass("p/a", "net/minecraft/src/Block");
+		m.setClass("p/b", "net/minecraft/src/Item");
+		m.setClass("p/b$c", "net/minecraft/src/Item$Inner");
+
+		// numbered parts are normalized
+		assertEquals("net/minecraft/src/Block$1", m.getClass("p/a$1"));
+		assertEquals("net/minecraft/src/Block$1", m.getClass("p/a$01"));
+		// the longest outer class with an entry is used
+		assertEquals("net/minecraft/src/Block$x", m.getClass("p/a$x"));
+		assertEquals("net/minecraft/src/Item$Inner$d", m.getClass("p/b$c$d"));
+		assertEquals("net/minecraft/src/Item$Inner$1", m.getClass("p/b$c$1"));
+		// names that don't look like inner classes are left alone
+		assertEquals("p/a$", m.getClass("p/a$"));
+		assertEquals("p/a$$1", m.getClass("p/a$$1"));
+		assertEquals("p/a-b$1", m.getClass("p/a-b$1"));
+		// names without a package only get the default package
+		m.setClass("a", "net/minecraft/src/Block");
+		assertEquals("a$1", m.getClass("a$1"));
+	}
+
+	@Test
+	public void testLongestPrefixWins() {
+		// the order the prefixes are added in doesn't matter
+		for(boolean longFirst : new boolean[] {false, true}) {
+			Mapping m = new Mapping(SRG, OBF);
+			if(longFirst) {
+				m.addPrefix("net/minecraft/src/client/", "client/");
+				m.addPrefix("net/minecraft/src/", "");
+			} else {
+				m.addPrefix("net/minecraft/src/", "");
+				m.addPrefix("net/minecraft/src/client/", "client/");
+			}
+
+			assertEquals("client/Foo", m.getClass("net/minecraft/src/client/Foo"));
+			assertEquals("Foo", m.getClass("net/minecraft/src/Foo"));
+			assertEquals("clientx/Foo", m.getClass("net/minecraft/src/clientx/Foo"));
+			assertEquals("net/minecraft/Foo", m.getClass("net/minecraft/Foo"));
+		}
+	}
+
+	@Test
+	public void testResultsFollowLaterEntries() {
+		Mapping m = new Mapping(OBF, SRG);
+		assertEquals("p/a$1", m.getClass("p/a$1"));
+		assertEquals("[Lp/a;", m.mapTypeDescriptor("[Lp/a;"));
+
+		// remembered results are dropped when the class entries change
+		m.setClass("p/a", "A");
+		assertEquals("A$1", m.getClass("p/a$1"));
+		assertEquals("[LA;", m.mapTypeDescriptor("[Lp/a;"));
+	}
+
+	@Test
+	public void testMembers() {
+		Mapping m = new Mapping(OBF, SRG);
+		m.setField("a", "b", "field_1_a");
+		m.setMethod("a", "c", "(I)V", "func_2_b");
+		m.setExceptions("a", "c", "(I)V", Arrays.asList("java/io/IOException"));
+		m.freeze();
+
+		assertEquals("field_1_a", m.getField("a", "b", "I"));
+		assertEquals("field_1_a", m.getField("a", "b", null));
+		assertEquals("x", m.getField("a", "x", "I"));
+		assertEquals("b", m.getField("z", "b", "I"));
+		assertEquals("func_2_b", m.getMethod("a", "c", "(I)V"));
+		assertEquals("c", m.getMethod("a", "c", "(J)V"));
+		assertEquals(Arrays.asList("java/io/IOException"), m.getExceptions("a", "c", "(I)V"));
+		assertEquals(Arrays.asList(), m.getExceptions("a", "c", "(J)V"));
+	}
+
+	@Test
+	public void testLibraryClasses() {
+		Mapping m = new Mapping(OBF, SRG);
+		m.setClass("a", "net/minecraft/src/Block");
+		assertFalse("not frozen yet", m.isUnmappable("java/lang/Object"));
+		m.freeze();
+
+		assertTrue(m.isUnmappable("java/lang/Object"));
+		assertTrue(m.isUnmappable("javax/swing/JFrame"));
+		assertFalse(m.isUnmappable("a"));
+		assertFalse(m.isUnmappable("javafx/Foo"));
+
+		// a mapping with entries in a library package has to look them up
+		Mapping library = new Mapping(OBF, SRG);
+		library.setMethod("java/lang/Object", "a", "()V", "func_1_a");
+		library.freeze();
+		assertFalse(library.isUnmappable("java/lang/Object"));
+		assertEquals("func_1_a", library.getMethod("java/lang/Object", "a", "()V"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testFrozen() {
+		Mapping m = new Mapping(OBF, SRG);
+		m.freeze();
+		m.setClass("a", "b");
+	}
+
+	@Test
+	public void testNameEntries() {
+		NameMapping m = new NameMapping(SRG, MCP);
+		m.setFieldName("field_1_a", "health");
+		m.setMethodName("func_2_b", "update");
+		m.setMethod("net/minecraft/src/Entity", "func_2_b", "()V", "tick");
+		m.freeze();
+
+		// name entries apply to any class and descriptor, per-class entries take precedence
+		assertEquals("health", m.getField("net/minecraft/src/Entity", "field_1_a", "I"));
+		assertEquals("health", m.getField("some/mod/Class", "field_1_a", null));
+		assertEquals("update", m.getMethod("some/mod/Class", "func_2_b", "(I)V"));
+		assertEquals("tick", m.getMethod("net/minecraft/src/Entity", "func_2_b", "()V"));
+		assertEquals("update", m.getMethod("net/minecraft/src/Entity", "func_2_b", "(I)V"));
+		assertEquals("func_3_c", m.getMethod("some/mod/Class", "func_3_c", "()V"));
+
+		// by default they apply to library classes too
+		assertFalse(m.isUnmappable("java/lang/Object"));
+		assertEquals("update", m.getMethod("java/lang/Object", "func_2_b", "()V"));
+	}
+
+	@Test
+	public void testNameEntriesOutsideLibraries() {
+		NameMapping m = new NameMapping(SRG, MCP);
+		m.setMethodName("func_2_b", "update");
+		m.setNamesInLibraries(false);
+		m.freeze();
+
+		assertTrue(m.isUnmappable("java/lang/Object"));
+		assertEquals("func_2_b", m.getMethod("java/lang/Object", "func_2_b", "()V"));
+		assertEquals("update", m.getMethod("some/mod/Class", "func_2_b", "()V"));
+	}
+
+}
@@ -0,0 +1,270 @@
+package immibis.bon;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import immibis.bon.io.IOUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.ClassNode;
+
+public class StreamingRemapperTest {
+
+	static final NameSet OBF = new NameSet(NameSet.Type.OBF, NameSet.Side.UNIVERSAL, "test");
+	static final NameSet SRG = new NameSet(NameSet.Type.SRG, NameSet.Side.UNIVERSAL, "test");
+
+	/**
+	 * A few classes using the obfuscated names in as many places as possible.
+	 */
+	private static Map<String, byte[]> createClasses() {
+		Map<String, byte[]> rv = new TreeMap<String, byte[]>();
+
+		ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, "a", null, "java/lang/Object", new String[] {"java/lang/Runnable"});
+		cw.visitInnerClass("a$1", "a", "1", 0);
+		FieldVisitor fv = cw.visitField(Opcodes.ACC_PUBLIC, "b", "I", null, null);
+		fv.visitEnd();
+		fv = cw.visitField(Opcodes.ACC_PUBLIC, "list", "Ljava/util/List;", "Ljava/util/List<La;>;", null);
+		fv.visitAnnotation("Ld;", true).visitEnd();
+		fv.visitEnd();
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "c", "(La;)V", null, new String[] {"java/io/IOException"});
+		mv.visitCode();
+		Label start = new Label(), end = new Label(), handler = new Label();
+		mv.visitTryCatchBlock(start, end, handler, "d");
+		mv.visitLabel(start);
+		mv.visitVarInsn(Opcodes.ALOAD, 1);
+		mv.visitFieldInsn(Opcodes.GETFIELD, "a", "b", "I");
+		mv.visitInsn(Opcodes.POP);
+		mv.visitTypeInsn(Opcodes.NEW, "a");
+		mv.visitInsn(Opcodes.DUP);
+		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, "a", "<init>", "()V", false);
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "a", "c", "(La;)V", false);
+		mv.visitLdcInsn(Type.getType("[La;"));
+		mv.visitInsn(Opcodes.POP);
+		mv.visitLdcInsn("a string, not a class");
+		mv.visitInsn(Opcodes.POP);
+		mv.visitLabel(end);
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitLabel(handler);
+		mv.visitInsn(Opcodes.ATHROW);
+		mv.visitLocalVariable("other", "La;", null, start, end, 1);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		addConstructor(cw, "java/lang/Object");
+		addRun(cw);
+		cw.visitEnd();
+		rv.put("a.class", cw.toByteArray());
+
+		cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, "d", null, "java/lang/RuntimeException", null);
+		addConstructor(cw, "java/lang/RuntimeException");
+		cw.visitEnd();
+		rv.put("d.class", cw.toByteArray());
+
+		// inherits a.b and a.c
+		cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, "e", null, "a", null);
+		mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "f", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitFieldInsn(Opcodes.GETFIELD, "e", "b", "I");
+		mv.visitInsn(Opcodes.POP);
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitInsn(Opcodes.ACONST_NULL);
+		mv.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "e", "c", "(La;)V", false);
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		addConstructor(cw, "a");
+		cw.visitEnd();
+		rv.put("e.class", cw.toByteArray());
+
+		// a mod class that uses Minecraft classes, and one that doesn't
+		cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, "mod/Mod", null, "e", null);
+		cw.visitField(Opcodes.ACC_PRIVATE, "block", "La;", null, null).visitEnd();
+		mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "c", "(La;)V", null, null);
+		mv.visitCode();
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		addConstructor(cw, "e");
+		cw.visitEnd();
+		rv.put("mod/Mod.class", cw.toByteArray());
+
+		cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+		cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, "mod/Util", null, "java/lang/Object", null);
+		cw.visitField(Opcodes.ACC_PRIVATE, "names", "Ljava/util/List;", "Ljava/util/List<Ljava/lang/String;>;", null).visitEnd();
+		mv = cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "size", "(Ljava/util/List;)I", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitMethodInsn(Opcodes.INVOKEINTERFACE, "java/util/List", "size", "()I", true);
+		mv.visitInsn(Opcodes.IRETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+		addConstructor(cw, "java/lang/Object");
+		cw.visitEnd();
+		rv.put("mod/Util.class", cw.toByteArray());
+
+		return rv;
+	}
+
+	private static void addConstructor(ClassWriter cw, String superName) {
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+		mv.visitCode();
+		mv.visitVarInsn(Opcodes.ALOAD, 0);
+		mv.visitMethodInsn(Opcodes.INVOKESPECIAL, superName, "<init>", "()V", false);
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private static void addRun(ClassWriter cw) {
+		MethodVisitor mv = cw.visitMethod(Opcodes.ACC_PUBLIC, "run", "()V", null, null);
+		mv.visitCode();
+		mv.visitInsn(Opcodes.RETURN);
+		mv.visitMaxs(0, 0);
+		mv.visitEnd();
+	}
+
+	private static Mapping createForward() {
+		Mapping m = new Mapping(OBF, SRG);
+		m.setClass("a", "net/minecraft/src/Block");
+		m.setClass("d", "net/minecraft/src/BlockException");
+		m.setClass("e", "net/minecraft/src/BlockStone");
+		m.setField("a", "b", "field_1_a");
+		m.setMethod("a", "c", "(La;)V", "func_2_b");
+		m.setExceptions("a", "c", "(La;)V", Arrays.asList("d"));
+		m.freeze();
+		return m;
+	}
+
+	private static Mapping createReverse() {
+		Mapping m = new Mapping(SRG, OBF);
+		m.setClass("net/minecraft/src/Block", "a");
+		m.setClass("net/minecraft/src/BlockException", "d");
+		m.setClass("net/minecraft/src/BlockStone", "e");
+		m.setField("net/minecraft/src/Block", "field_1_a", "b");
+		m.setMethod("net/minecraft/src/Block", "func_2_b", "(Lnet/minecraft/src/Block;)V", "c");
+		m.freeze();
+		return m;
+	}
+
+	private static Map<String, byte[]> remapTree(Mapping mapping, NameSet ns, Map<String, byte[]> classes) throws ClassFormatException {
+		List<ClassNode> nodes = new ArrayList<ClassNode>();
+		for(byte[] bytes : classes.values()) {
+			nodes.add(IOUtils.readClass(bytes));
+		}
+		ClassCollection out = new Remapper(mapping).remap(new ClassCollection(ns, nodes, null), Collections.<IReferenceCollection>emptyList(), null);
+
+		Map<String, byte[]> rv = new TreeMap<String, byte[]>();
+		for(ClassNode cn : out.getAllClasses()) {
+			ClassWriter cw = new ClassWriter(0);
+			cn.accept(cw);
+			rv.put(cn.name + ".class", cw.toByteArray());
+		}
+		return rv;
+	}
+
+	private static Map<String, byte[]> remapStreaming(Mapping mapping, NameSet ns, Map<String, byte[]> classes) throws ClassFormatException {
+		return remapStreaming(mapping, ns, classes, 1);
+	}
+
+	private static Map<String, byte[]> remapStreaming(Mapping mapping, NameSet ns, Map<String, byte[]> classes, int threads) throws ClassFormatException {
+		ClassCollection in = new ClassCollection(ns, Collections.<ClassNode>emptyList(), null);
+		in.getExtraFiles().putAll(classes);
+		ClassCollection out = new StreamingRemapper(mapping, threads).remap(in, Collections.<IReferenceCollection>emptyList(), null);
+		return new TreeMap<String, byte[]>(out.getExtraFiles());
+	}
+
+	/**
+	 * Writes a class again with a new constant pool, so classes with the same contents compare equal
+	 * whatever their constant pools were.
+	 */
+	private static byte[] normalize(byte[] bytes) {
+		ClassWriter cw = new ClassWriter(0);
+		new ClassReader(bytes).accept(cw, 0);
+		return cw.toByteArray();
+	}
+
+	private static void assertSameClasses(Map<String, byte[]> expected, Map<String, byte[]> actual) {
+		assertEquals(expected.keySet(), actual.keySet());
+		for(String name : expected.keySet()) {
+			assertArrayEquals(name, normalize(expected.get(name)), normalize(actual.get(name)));
+		}
+	}
+
+	private static void assertNoneContain(Map<String, byte[]> classes, String... strings) {
+		for(Map.Entry<String, byte[]> e : classes.entrySet()) {
+			String contents = new String(e.getValue(), StandardCharsets.ISO_8859_1);
+			for(String s : strings) {
+				assertFalse(e.getKey() + " contains " + s, contents.contains(s));
+			}
+		}
+	}
+
+	@Test
+	public void testSameAsTree() throws Exception {
+		Map<String, byte[]> obf = createClasses();
+		Map<String, byte[]> srg = remapStreaming(createForward(), OBF, obf);
+		assertEquals(Arrays.asList("mod/Mod.class", "mod/Util.class", "net/minecraft/src/Block.class", "net/minecraft/src/BlockException.class", "net/minecraft/src/BlockStone.class"),
+				new ArrayList<String>(srg.keySet()));
+		assertSameClasses(remapTree(createForward(), OBF, obf), srg);
+
+		// back again, as for reobfuscating a mod
+		Map<String, byte[]> back = remapStreaming(createReverse(), SRG, srg);
+		assertSameClasses(remapTree(createReverse(), SRG, srg), back);
+		assertEquals(obf.keySet(), back.keySet());
+	}
+
+	@Test
+	public void testNoOldNames() throws Exception {
+		Map<String, byte[]> srg = remapStreaming(createForward(), OBF, createClasses());
+		assertNoneContain(srg, "La;", "\u0001b", "\u0001c");
+
+		Map<String, byte[]> obf = remapStreaming(createReverse(), SRG, srg);
+		assertNoneContain(obf, "net/minecraft/src/", "field_1_a", "func_2_b");
+	}
+
+	@Test
+	public void testUnchangedClasses() throws Exception {
+		// nothing is renamed, so the constant pools are reused; member references are still resolved to their owners
+		Mapping identity = new Mapping(OBF, SRG);
+		identity.freeze();
+		Map<String, byte[]> obf = createClasses();
+		Map<String, byte[]> out = remapStreaming(identity, OBF, obf);
+		assertSameClasses(remapTree(identity, OBF, obf), out);
+		assertArrayEquals(normalize(obf.get("mod/Util.class")), normalize(out.get("mod/Util.class")));
+	}
+
+	@Test
+	public void testThreads() throws Exception {
+		Map<String, byte[]> obf = createClasses();
+		obf.put("META-INF/info.txt", new byte[] {1, 2, 3});
+		Map<String, byte[]> expected = remapStreaming(createForward(), OBF, obf, 1);
+		Map<String, byte[]> actual = remapStreaming(createForward(), OBF, obf, 4);
+
+		assertEquals(expected.keySet(), actual.keySet());
+		for(String name : expected.keySet()) {
+			assertArrayEquals(name, expected.get(name), actual.get(name));
+		}
+	}
+
+}
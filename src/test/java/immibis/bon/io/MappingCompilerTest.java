@@ -0,0 +1,226 @@
+package immibis.bon.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import immibis.bon.Mapping;
+import immibis.bon.NameMapping;
+import immibis.bon.NameSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappingCompilerTest {
+
+	static final NameSet OBF = new NameSet(NameSet.Type.OBF, NameSet.Side.UNIVERSAL, "test");
+	static final NameSet SRG = new NameSet(NameSet.Type.SRG, NameSet.Side.UNIVERSAL, "test");
+	static final NameSet MCP = new NameSet(NameSet.Type.MCP, NameSet.Side.UNIVERSAL, "test");
+
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("mappings", ".bin");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	private static Mapping createSrg() {
+		Mapping m = new Mapping(OBF, SRG);
+		m.setDefaultPackage("net/minecraft/src/");
+		m.addPrefix("paulscode/", "paulscode/");
+		m.setClass("a", "net/minecraft/src/Block");
+		m.setClass("b", "net/minecraft/src/Item");
+		m.setField("a", "c", "field_1_a");
+		m.setMethod("a", "d", "(Lb;)V", "func_2_b");
+		m.setMethod("java/lang/Object", "e", "()V", "func_3_c");
+		m.setExceptions("a", "d", "(Lb;)V", Arrays.asList("java/io/IOException", "java/lang/Exception"));
+		m.freeze();
+		return m;
+	}
+
+	private static NameMapping createCsv(boolean namesInLibraries) {
+		NameMapping m = new NameMapping(SRG, MCP);
+		m.setFieldName("field_1_a", "hardness");
+		m.setMethodName("func_2_b", "onPlaced");
+		m.setNamesInLibraries(namesInLibraries);
+		m.freeze();
+		return m;
+	}
+
+	private Mapping[] compileAndLoad(Mapping... mappings) throws IOException {
+		MappingCompiler.compile(file, "key", mappings);
+		NameSet[] fromNS = new NameSet[mappings.length], toNS = new NameSet[mappings.length];
+		for(int k = 0; k < mappings.length; k++) {
+			fromNS[k] = mappings[k].fromNS;
+			toNS[k] = mappings[k].toNS;
+		}
+		return MappedMapping.load(file, "key", fromNS, toNS);
+	}
+
+	/**
+	 * Records all entries of a mapping as sorted strings.
+	 */
+	private static List<String> entries(Mapping m) {
+		final List<String> rv = new ArrayList<String>();
+		m.accept(new Mapping.EntryVisitor() {
+			@Override
+			public void visitClass(String in, String out) {
+				rv.add("CL " + in + " " + out);
+			}
+
+			@Override
+			public void visitField(String clazz, String name, String out) {
+				rv.add("FD " + clazz + " " + name + " " + out);
+			}
+
+			@Override
+			public void visitMethod(String clazz, String name, String desc, String out) {
+				rv.add("MD " + clazz + " " + name + " " + desc + " " + out);
+			}
+
+			@Override
+			public void visitExceptions(String clazz, String method, String desc, List<String> exc) {
+				rv.add("EX " + clazz + " " + method + " " + desc + " " + exc);
+			}
+
+			@Override
+			public void visitFieldName(String name, String out) {
+				rv.add("FN " + name + " " + out);
+			}
+
+			@Override
+			public void visitMethodName(String name, String out) {
+				rv.add("MN " + name + " " + out);
+			}
+		});
+		Collections.sort(rv);
+		return rv;
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException {
+		Mapping srg = createSrg();
+		NameMapping csv = createCsv(true);
+		Mapping[] loaded = compileAndLoad(srg, csv);
+
+		assertEquals(2, loaded.length);
+		assertEquals(entries(srg), entries(loaded[0]));
+		assertEquals(entries(csv), entries(loaded[1]));
+		assertEquals(SRG, loaded[0].toNS);
+		assertEquals(MCP, loaded[1].toNS);
+	}
+
+	@Test
+	public void testLookups() throws IOException {
+		Mapping srg = compileAndLoad(createSrg(), createCsv(true))[0];
+
+		assertEquals("net/minecraft/src/", srg.getDefaultPackage());
+		assertEquals(Collections.singletonMap("paulscode/", "paulscode/"), srg.getPrefixes());
+		assertEquals("net/minecraft/src/Block", srg.getClass("a"));
+		assertEquals("net/minecraft/src/z", srg.getClass("z"));
+		assertEquals("paulscode/Sound", srg.getClass("paulscode/Sound"));
+		assertEquals("field_1_a", srg.getField("a", "c", "I"));
+		assertEquals("x", srg.getField("a", "x", "I"));
+		assertEquals("func_2_b", srg.getMethod("a", "d", "(Lb;)V"));
+		assertEquals("d", srg.getMethod("a", "d", "()V"));
+		assertEquals("(Lnet/minecraft/src/Item;)V", srg.mapMethodDescriptor("(Lb;)V"));
+		assertEquals(Arrays.asList("java/io/IOException", "java/lang/Exception"), srg.getExceptions("a", "d", "(Lb;)V"));
+		assertEquals(Collections.<String>emptyList(), srg.getExceptions("a", "d", "()V"));
+		assertEquals(Collections.<String>emptyList(), srg.getExceptions("unknown", "d", "(Lb;)V"));
+
+		// it has an entry in a library class, so those have to be looked up
+		assertFalse(srg.isUnmappable("java/lang/Object"));
+		assertEquals("func_3_c", srg.getMethod("java/lang/Object", "e", "()V"));
+	}
+
+	@Test
+	public void testNameEntries() throws IOException {
+		Mapping csv = compileAndLoad(createCsv(true))[0];
+		assertEquals("hardness", csv.getField("net/minecraft/src/Block", "field_1_a", "I"));
+		assertEquals("onPlaced", csv.getMethod("some/mod/Class", "func_2_b", "(I)V"));
+		assertEquals("func_9_z", csv.getMethod("some/mod/Class", "func_9_z", "(I)V"));
+		assertFalse(csv.isUnmappable("java/lang/Object"));
+		assertEquals("onPlaced", csv.getMethod("java/lang/Object", "func_2_b", "()V"));
+
+		csv = compileAndLoad(createCsv(false))[0];
+		assertEquals("onPlaced", csv.getMethod("some/mod/Class", "func_2_b", "(I)V"));
+		assertTrue(csv.isUnmappable("java/lang/Object"));
+		assertEquals("func_2_b", csv.getMethod("java/lang/Object", "func_2_b", "()V"));
+	}
+
+	@Test
+	public void testManyEntries() throws IOException {
+		Mapping m = new Mapping(OBF, SRG);
+		for(int k = 0; k < 20000; k++) {
+			m.setClass("c" + k, "net/minecraft/src/C" + k);
+			m.setMethod("c" + k, "m", "()V", "func_" + k + "_a");
+		}
+		m.freeze();
+		Mapping loaded = compileAndLoad(m)[0];
+
+		for(int k = 0; k < 20000; k++) {
+			assertEquals("net/minecraft/src/C" + k, loaded.getClass("c" + k));
+			assertEquals("func_" + k + "_a", loaded.getMethod("c" + k, "m", "()V"));
+		}
+		assertEquals("c20000", loaded.getClass("c20000"));
+	}
+
+	@Test
+	public void testEmptyMapping() throws IOException {
+		Mapping m = new Mapping(OBF, SRG);
+		m.freeze();
+		Mapping loaded = compileAndLoad(m)[0];
+
+		assertEquals(Collections.<String>emptyList(), entries(loaded));
+		assertFalse(loaded.mapsFields());
+		assertFalse(loaded.mapsMethods());
+		assertEquals("a", loaded.getClass("a"));
+		assertTrue(loaded.isUnmappable("java/lang/Object"));
+	}
+
+	@Test(expected = IOException.class)
+	public void testWrongSourceKey() throws IOException {
+		MappingCompiler.compile(file, "key", createSrg());
+		MappedMapping.load(file, "other", new NameSet[] {OBF}, new NameSet[] {SRG});
+	}
+
+	@Test(expected = IOException.class)
+	public void testWrongMappingCount() throws IOException {
+		MappingCompiler.compile(file, "key", createSrg());
+		MappedMapping.load(file, "key", new NameSet[] {OBF, SRG}, new NameSet[] {SRG, MCP});
+	}
+
+	@Test(expected = IOException.class)
+	public void testWrongVersion() throws IOException {
+		MappingCompiler.compile(file, "key", createSrg());
+		try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.seek(4);
+			raf.writeInt(MappingCompiler.VERSION - 1);
+		}
+		MappedMapping.load(file, "key", new NameSet[] {OBF}, new NameSet[] {SRG});
+	}
+
+	@Test(expected = IOException.class)
+	public void testWrongMagic() throws IOException {
+		MappingCompiler.compile(file, "key", createSrg());
+		try(RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.writeInt(0);
+		}
+		MappedMapping.load(file, "key", new NameSet[] {OBF}, new NameSet[] {SRG});
+	}
+
+}
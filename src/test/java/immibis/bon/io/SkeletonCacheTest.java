@@ -0,0 +1,246 @@
+package immibis.bon.io;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import immibis.bon.ClassSkeleton;
+import immibis.bon.NameSet;
+import immibis.bon.SkeletonCollection;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+public class SkeletonCacheTest {
+
+	static final NameSet OBF = new NameSet(NameSet.Type.OBF, NameSet.Side.UNIVERSAL, "test");
+
+	private File dir, jarFile, classDir, cacheDir;
+	private boolean wasQuiet;
+
+	@Before
+	public void setUp() throws IOException {
+		wasQuiet = MappingFactory.quiet;
+		MappingFactory.quiet = true;
+
+		dir = Files.createTempDirectory("skel").toFile();
+		jarFile = new File(dir, "ref.jar");
+		cacheDir = new File(dir, "cache");
+		cacheDir.mkdirs();
+
+		try(JarOutputStream out = new JarOutputStream(new FileOutputStream(jarFile))) {
+			writeClass(out, Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT, "p/I", "java/lang/Object", new String[0]);
+			ClassWriter cw = startClass(Opcodes.ACC_PUBLIC, "p/A", "java/lang/Object", new String[] {"p/I", "java/lang/Runnable"});
+			cw.visitField(Opcodes.ACC_PRIVATE, "a", "I", null, null).visitEnd();
+			cw.visitField(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "b", "Lp/A;", null, null).visitEnd();
+			cw.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_ABSTRACT, "run", "()V", null, null).visitEnd();
+			cw.visitMethod(Opcodes.ACC_PROTECTED | Opcodes.ACC_ABSTRACT, "c", "(Lp/A;[I)Lp/I;", null, null).visitEnd();
+			writeClass(out, "p/A", cw);
+			// non-ASCII names have to survive the string table
+			writeClass(out, Opcodes.ACC_PUBLIC, "p/Blöck", "p/A", new String[0]);
+			out.putNextEntry(new ZipEntry("p/readme.txt"));
+			out.write("not a class".getBytes("UTF-8"));
+		}
+
+		classDir = new File(dir, "classes");
+		new File(classDir, "p").mkdirs();
+		writeClassFile(startClass(Opcodes.ACC_PUBLIC, "p/A", "java/lang/Object", new String[] {"java/lang/Runnable"}), "p/A");
+		writeClassFile(startClass(Opcodes.ACC_PUBLIC, "p/B", "p/A", new String[0]), "p/B");
+	}
+
+	private void writeClassFile(ClassWriter cw, String name) throws IOException {
+		cw.visitEnd();
+		Files.write(new File(classDir, name + ".class").toPath(), cw.toByteArray());
+	}
+
+	@After
+	public void tearDown() {
+		MappingFactory.quiet = wasQuiet;
+		delete(dir);
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static ClassWriter startClass(int access, String name, String superName, String[] interfaces) {
+		ClassWriter cw = new ClassWriter(0);
+		cw.visit(Opcodes.V1_6, access, name, null, superName, interfaces);
+		return cw;
+	}
+
+	private static void writeClass(JarOutputStream out, int access, String name, String superName, String[] interfaces) throws IOException {
+		writeClass(out, name, startClass(access, name, superName, interfaces));
+	}
+
+	private static void writeClass(JarOutputStream out, String name, ClassWriter cw) throws IOException {
+		cw.visitEnd();
+		out.putNextEntry(new ZipEntry(name + ".class"));
+		out.write(cw.toByteArray());
+	}
+
+	/**
+	 * Describes all skeletons as sorted strings.
+	 */
+	private static List<String> describe(SkeletonCollection sc) {
+		List<String> rv = new ArrayList<String>();
+		for(ClassSkeleton cs : sc.getSkeletons()) {
+			rv.add(cs.name + " " + cs.superName + " " + cs.access + " " + Arrays.toString(cs.interfaces) + " " + Arrays.toString(cs.methods) + " " + Arrays.toString(cs.fields));
+		}
+		Collections.sort(rv);
+		return rv;
+	}
+
+	private File getCacheFile() {
+		File[] files = cacheDir.listFiles();
+		assertEquals(1, files.length);
+		return files[0];
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		List<String> expected = describe(JarLoader.loadReferencesFromJar(OBF, jarFile));
+		assertEquals(3, expected.size());
+
+		SkeletonCache cache = new SkeletonCache(cacheDir);
+		assertEquals(expected, describe(cache.load(OBF, jarFile)));
+		File cacheFile = getCacheFile();
+
+		// the jar isn't read again once it's cached
+		long modified = cacheFile.lastModified();
+		SkeletonCollection sc = cache.load(OBF, jarFile);
+		assertEquals(expected, describe(sc));
+		assertEquals(OBF, sc.getNameSet());
+		assertEquals(modified, cacheFile.lastModified());
+	}
+
+	@Test
+	public void testNameSets() throws Exception {
+		// the same jar in another name set has its own cache file
+		SkeletonCache cache = new SkeletonCache(cacheDir);
+		cache.load(OBF, jarFile);
+		NameSet srg = new NameSet(NameSet.Type.SRG, NameSet.Side.UNIVERSAL, "test");
+		assertEquals(srg, cache.load(srg, jarFile).getNameSet());
+		assertEquals(2, cacheDir.listFiles().length);
+	}
+
+	private void checkBroken(int pos, int value) throws Exception {
+		List<String> expected = describe(JarLoader.loadReferencesFromJar(OBF, jarFile));
+		SkeletonCache cache = new SkeletonCache(cacheDir);
+		cache.load(OBF, jarFile);
+		File cacheFile = getCacheFile();
+		long length = cacheFile.length();
+		try(RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw")) {
+			raf.seek(pos);
+			raf.writeInt(value);
+		}
+
+		// the jar is loaded instead, and the cache file written again
+		assertEquals(expected, describe(cache.load(OBF, jarFile)));
+		assertEquals(length, getCacheFile().length());
+		assertEquals(expected, describe(cache.load(OBF, jarFile)));
+	}
+
+	@Test
+	public void testWrongVersion() throws Exception {
+		checkBroken(4, 0);
+	}
+
+	@Test
+	public void testBadStringCount() throws Exception {
+		checkBroken(8, Integer.MAX_VALUE);
+	}
+
+	@Test
+	public void testNegativeStringLength() throws Exception {
+		checkBroken(12, -1);
+	}
+
+	@Test
+	public void testDirectory() throws Exception {
+		List<String> expected = describe(ClassCollectionFactory.loadReferencesFromDir(OBF, classDir));
+		assertEquals(2, expected.size());
+
+		SkeletonCache cache = new SkeletonCache(cacheDir);
+		assertEquals(expected, describe(cache.load(OBF, classDir)));
+		long modified = getCacheFile().lastModified();
+		assertEquals(expected, describe(cache.load(OBF, classDir)));
+		assertEquals(modified, getCacheFile().lastModified());
+
+		// a changed class file gets a new cache file
+		writeClassFile(startClass(Opcodes.ACC_PUBLIC, "p/B", "java/lang/Object", new String[0]), "p/B");
+		new File(classDir, "p/B.class").setLastModified(modified - 10000);
+		List<String> changed = describe(cache.load(OBF, classDir));
+		assertEquals(describe(ClassCollectionFactory.loadReferencesFromDir(OBF, classDir)), changed);
+		assertFalse(expected.equals(changed));
+		assertEquals(2, cacheDir.listFiles().length);
+	}
+
+	@Test
+	public void testPrune() throws Exception {
+		File oldCacheDir = ClassCollectionFactory.cacheDir;
+		ClassCollectionFactory.cacheDir = cacheDir;
+		try {
+			SkeletonCache cache = new SkeletonCache(cacheDir);
+			cache.load(OBF, jarFile);
+			File used = getCacheFile();
+			cache.load(OBF, classDir);
+			File unused = null;
+			for(File f : cacheDir.listFiles()) {
+				if(!f.equals(used)) {
+					unused = f;
+				}
+			}
+			File other = new File(cacheDir, "notes.txt");
+			Files.write(other.toPath(), new byte[1]);
+			long old = System.currentTimeMillis() - ClassCollectionFactory.cacheMaxAge - 10000;
+			used.setLastModified(old);
+			unused.setLastModified(old);
+			other.setLastModified(old);
+
+			// using a cache file keeps it, only files the cache wrote are deleted
+			cache.load(OBF, jarFile);
+			ClassCollectionFactory.pruneCache();
+			assertTrue(used.isFile());
+			assertFalse(unused.exists());
+			assertTrue(other.isFile());
+		} finally {
+			ClassCollectionFactory.cacheDir = oldCacheDir;
+		}
+	}
+
+	@Test
+	public void testTruncated() throws Exception {
+		SkeletonCache cache = new SkeletonCache(cacheDir);
+		cache.load(OBF, jarFile);
+		File cacheFile = getCacheFile();
+		try(RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw")) {
+			raf.setLength(raf.length() - 6);
+		}
+
+		assertEquals(describe(JarLoader.loadReferencesFromJar(OBF, jarFile)), describe(cache.load(OBF, jarFile)));
+		assertTrue(getCacheFile().length() > 0);
+	}
+
+}
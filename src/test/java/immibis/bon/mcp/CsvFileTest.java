@@ -0,0 +1,68 @@
+package immibis.bon.mcp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class CsvFileTest {
+
+	private static Map<String, String> read(String text, int... sides) {
+		return CsvFile.read(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), sides);
+	}
+
+	@Test
+	public void testSides() {
+		String csv = "searge,name,side,desc\n"
+				+ "func_1_a,client,0,Only on the client\n"
+				+ "func_2_b,server,1,\n"
+				+ "func_3_c,both,2,Has, commas, in the description\n";
+
+		Map<String, String> expected = new HashMap<String, String>();
+		expected.put("func_1_a", "client");
+		expected.put("func_3_c", "both");
+		assertEquals(expected, read(csv, 0, 2));
+
+		expected.clear();
+		expected.put("func_2_b", "server");
+		assertEquals(expected, read(csv, 1));
+	}
+
+	@Test
+	public void testSkippedLines() {
+		Map<String, String> expected = new HashMap<String, String>();
+		expected.put("field_1_a", "ok");
+		expected.put("field_5_e", "negative");
+		assertEquals(expected, read("searge,name,side,desc\r\n"
+				+ "field_1_a,ok,0,\r\n"
+				+ "field_2_b,noSide\r\n"
+				+ "field_3_c,emptySide,,\r\n"
+				+ "field_4_d,badSide,x,\r\n"
+				+ "field_5_e,negative,-1,\r\n"
+				+ "\r\n"
+				+ "field_6_f,lastLine,1,", 0, -1));
+	}
+
+	@Test
+	public void testLargeFile() {
+		// big enough to be split into several chunks; a name that appears twice keeps its last value
+		StringBuilder csv = new StringBuilder("searge,name,side,desc\n");
+		csv.append("func_0_a,first,0,\n");
+		Map<String, String> expected = new HashMap<String, String>();
+		for(int k = 1; k < 50000; k++) {
+			csv.append("func_").append(k).append("_a,name").append(k).append(",").append(k % 3).append(",Some description of method ").append(k).append("\n");
+			if(k % 3 != 1) {
+				expected.put("func_" + k + "_a", "name" + k);
+			}
+		}
+		csv.append("func_0_a,last,2,\n");
+		expected.put("func_0_a", "last");
+
+		assertEquals(expected, read(csv.toString(), 0, 2));
+	}
+
+}
@@ -0,0 +1,60 @@
+package immibis.bon.mcp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class ExcFileTest {
+
+	private static ExcFile read(String text) {
+		return new ExcFile(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Test
+	public void testExceptions() {
+		ExcFile exc = read("net/minecraft/src/NetClientHandler.<init>(Lnet/minecraft/client/Minecraft;Ljava/lang/String;I)V=java/net/UnknownHostException,java/io/IOException|p_i42_1_,p_i42_2_,p_i42_3_\n"
+				+ "net/minecraft/src/Block.func_1_a()V=java/lang/Exception|\n"
+				+ "net/minecraft/src/Block.func_2_b(I)I=java/lang/Error\n");
+
+		assertArrayEquals(new String[] {"java/net/UnknownHostException", "java/io/IOException"},
+				exc.getExceptionClasses("net/minecraft/src/NetClientHandler", "<init>", "(Lnet/minecraft/client/Minecraft;Ljava/lang/String;I)V"));
+		assertArrayEquals(new String[] {"java/lang/Exception"}, exc.getExceptionClasses("net/minecraft/src/Block", "func_1_a", "()V"));
+		assertArrayEquals(new String[] {"java/lang/Error"}, exc.getExceptionClasses("net/minecraft/src/Block", "func_2_b", "(I)I"));
+		assertEquals(0, exc.getExceptionClasses("net/minecraft/src/Block", "func_2_b", "()I").length);
+	}
+
+	@Test
+	public void testSkippedLines() {
+		ExcFile exc = read("# comment\r\n"
+				+ "\r\n"
+				+ "  net/minecraft/src/A.func_1_a()V=java/io/IOException|p_1_\r\n"
+				+ "net/minecraft/src/A.func_2_b(I)V=|p_2_\r\n"
+				+ "net/minecraft/src/A.max_constructor_index=1000\r\n"
+				+ "net/minecraft/src/A.func_3_c()V=java/lang/Exception");
+
+		assertEquals(2, exc.exceptions.size());
+		assertArrayEquals(new String[] {"java/io/IOException"}, exc.getExceptionClasses("net/minecraft/src/A", "func_1_a", "()V"));
+		assertEquals(0, exc.getExceptionClasses("net/minecraft/src/A", "func_2_b", "(I)V").length);
+		assertArrayEquals(new String[] {"java/lang/Exception"}, exc.getExceptionClasses("net/minecraft/src/A", "func_3_c", "()V"));
+	}
+
+	@Test
+	public void testLargeFile() {
+		// big enough to be split into several chunks
+		StringBuilder text = new StringBuilder();
+		for(int k = 0; k < 40000; k++) {
+			text.append("net/minecraft/src/C").append(k).append(".func_").append(k).append("_a(II)V=java/io/IOException,java/lang/Exception").append(k).append("|p_").append(k).append("_1_\n");
+		}
+		ExcFile exc = read(text.toString());
+
+		assertEquals(40000, exc.exceptions.size());
+		for(int k = 0; k < 40000; k++) {
+			assertArrayEquals(new String[] {"java/io/IOException", "java/lang/Exception" + k}, exc.getExceptionClasses("net/minecraft/src/C" + k, "func_" + k + "_a", "(II)V"));
+		}
+	}
+
+}
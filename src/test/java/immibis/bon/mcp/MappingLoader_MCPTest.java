@@ -0,0 +1,258 @@
+package immibis.bon.mcp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import immibis.bon.IProgressListener;
+import immibis.bon.Mapping;
+import immibis.bon.NameMapping;
+import immibis.bon.NameSet;
+import immibis.bon.io.MappedMapping;
+import immibis.bon.io.MappingFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MappingLoader_MCPTest {
+
+	private File mcpDir, cacheDir;
+	private boolean wasQuiet;
+
+	@Before
+	public void setUp() throws IOException {
+		wasQuiet = MappingFactory.quiet;
+		MappingFactory.quiet = true;
+
+		mcpDir = Files.createTempDirectory("mcp").toFile();
+		cacheDir = new File(mcpDir, "cache");
+		write("conf/joined.srg", "PK: . net/minecraft/src\n"
+				+ "CL: a net/minecraft/src/Block\n"
+				+ "CL: b net/minecraft/src/Item\n"
+				+ "FD: a/c net/minecraft/src/Block/field_1_a\n"
+				+ "FD: b/c net/minecraft/src/Item/field_2_b\n"
+				+ "MD: a/d (Lb;)V net/minecraft/src/Block/func_3_c (Lnet/minecraft/src/Item;)V\n"
+				+ "MD: b/d (Lb;)V net/minecraft/src/Item/func_4_d (Lnet/minecraft/src/Item;)V\n");
+		write("conf/joined.exc", "net/minecraft/src/Block.func_3_c(Lnet/minecraft/src/Item;)V=java/io/IOException,net/minecraft/src/Item|p_1_\n");
+		// both fields get the same MCP name; the last names aren't in the SRG file
+		write("conf/fields.csv", "searge,name,side,desc\n"
+				+ "field_1_a,hardness,2,\n"
+				+ "field_2_b,hardness,2,\n"
+				+ "field_9_z,old,2,\n");
+		write("conf/methods.csv", "searge,name,side,desc\n"
+				+ "func_3_c,onPlaced,2,\n"
+				+ "func_4_d,onUsed,0,\n"
+				+ "func_9_z,old,1,\n");
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		MappingFactory.quiet = wasQuiet;
+		delete(mcpDir);
+	}
+
+	private void write(String path, String text) throws IOException {
+		File file = new File(mcpDir, path);
+		file.getParentFile().mkdirs();
+		Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static void delete(File file) {
+		File[] children = file.listFiles();
+		if(children != null) {
+			for(File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+
+	private static void checkSRG(Mapping forward, Mapping reverse) {
+		assertEquals("net/minecraft/src/Block", forward.getClass("a"));
+		assertEquals("net/minecraft/src/z", forward.getClass("z"));
+		assertEquals("field_1_a", forward.getField("a", "c", "I"));
+		assertEquals("func_3_c", forward.getMethod("a", "d", "(Lb;)V"));
+		assertEquals("func_4_d", forward.getMethod("b", "d", "(Lb;)V"));
+		// the EXC file uses SRG names, the exceptions are linked to the obfuscated methods
+		assertEquals(Arrays.asList("java/io/IOException", "b"), forward.getExceptions("a", "d", "(Lb;)V"));
+		assertEquals(Collections.<String>emptyList(), forward.getExceptions("b", "d", "(Lb;)V"));
+
+		assertEquals("a", reverse.getClass("net/minecraft/src/Block"));
+		assertEquals("z", reverse.getClass("net/minecraft/src/z"));
+		assertEquals("c", reverse.getField("net/minecraft/src/Item", "field_2_b", "I"));
+		assertEquals("d", reverse.getMethod("net/minecraft/src/Block", "func_3_c", "(Lnet/minecraft/src/Item;)V"));
+	}
+
+	private static void checkCSV(Mapping forward, Mapping reverse) {
+		// SRG names are unique, so they are mapped in any class
+		assertEquals("hardness", forward.getField("net/minecraft/src/Block", "field_1_a", "I"));
+		assertEquals("hardness", forward.getField("some/mod/Class", "field_2_b", "I"));
+		assertEquals("onPlaced", forward.getMethod("some/mod/Class", "func_3_c", "()V"));
+		assertEquals("onUsed", forward.getMethod("net/minecraft/src/Item", "func_4_d", "(Lnet/minecraft/src/Item;)V"));
+		assertEquals("func_9_z", forward.getMethod("net/minecraft/src/Item", "func_9_z", "()V"));
+		assertEquals("field_9_z", forward.getField("net/minecraft/src/Item", "field_9_z", "I"));
+		// none of the SRG members is in a library class
+		assertTrue(forward.isUnmappable("java/lang/Object"));
+
+		// MCP names aren't unique, they are only mapped in the class and descriptor of the SRG member
+		assertEquals("field_1_a", reverse.getField("net/minecraft/src/Block", "hardness", "I"));
+		assertEquals("field_2_b", reverse.getField("net/minecraft/src/Item", "hardness", "I"));
+		assertEquals("hardness", reverse.getField("some/mod/Class", "hardness", "I"));
+		assertEquals("func_3_c", reverse.getMethod("net/minecraft/src/Block", "onPlaced", "(Lnet/minecraft/src/Item;)V"));
+		assertEquals("onPlaced", reverse.getMethod("net/minecraft/src/Block", "onPlaced", "()V"));
+		assertEquals("onPlaced", reverse.getMethod("net/minecraft/src/Item", "onPlaced", "(Lnet/minecraft/src/Item;)V"));
+	}
+
+	@Test
+	public void testLoad() throws Exception {
+		MappingLoader_MCP loader = new MappingLoader_MCP("test", NameSet.Side.UNIVERSAL, mcpDir, null);
+		checkSRG(loader.getForwardSRG(), loader.getReverseSRG());
+		checkCSV(loader.getForwardCSV(), loader.getReverseCSV());
+		assertTrue(loader.estimateSize() > 0);
+	}
+
+	@Test
+	public void testSides() throws Exception {
+		write("conf/client.srg", "CL: a net/minecraft/src/Block\n"
+				+ "CL: b net/minecraft/src/Item\n"
+				+ "MD: a/d (Lb;)V net/minecraft/src/Block/func_3_c (Lnet/minecraft/src/Item;)V\n"
+				+ "MD: a/e ()V net/minecraft/src/Block/func_4_d ()V\n");
+		MappingLoader_MCP loader = new MappingLoader_MCP("test", NameSet.Side.CLIENT, mcpDir, null);
+
+		// only names for the client side are used, the exceptions come from joined.exc
+		assertEquals("onUsed", loader.getForwardCSV().getMethod("net/minecraft/src/Block", "func_4_d", "()V"));
+		assertEquals("func_3_c", loader.getForwardCSV().getMethod("net/minecraft/src/Block", "func_3_c", "()V"));
+		assertEquals(Arrays.asList("java/io/IOException", "b"), loader.getForwardSRG().getExceptions("a", "d", "(Lb;)V"));
+	}
+
+	@Test
+	public void testLoadLayers() throws Exception {
+		MappingLoader_MCP loader = new MappingLoader_MCP("test", NameSet.Side.UNIVERSAL, mcpDir, null);
+		assertTrue(loader.load(false, null));
+		assertFalse(loader.load(false, null));
+		long srgSize = loader.estimateSize();
+		assertTrue(loader.load(true, null));
+		assertFalse(loader.load(true, null));
+		assertTrue(loader.estimateSize() > srgSize);
+	}
+
+	@Test
+	public void testUnload() throws Exception {
+		MappingLoader_MCP loader = new MappingLoader_MCP("test", NameSet.Side.UNIVERSAL, mcpDir, null);
+		Mapping forwardSRG = loader.getForwardSRG(), forwardCSV = loader.getForwardCSV();
+		loader.unload();
+		assertEquals(0, loader.estimateSize());
+
+		// mappings handed out before stay usable, the loader loads new ones
+		checkSRG(forwardSRG, loader.getReverseSRG());
+		assertNotSame(forwardSRG, loader.getForwardSRG());
+		checkCSV(forwardCSV, loader.getReverseCSV());
+		checkSRG(loader.getForwardSRG(), loader.getReverseSRG());
+		checkCSV(loader.getForwardCSV(), loader.getReverseCSV());
+	}
+
+	private int countCompiled() {
+		File[] files = cacheDir.listFiles();
+		return files == null ? 0 : files.length;
+	}
+
+	@Test
+	public void testCompiled() throws Exception {
+		// nothing is read or compiled until a mapping is asked for, and then only its layer
+		MappingLoader_MCP loader = new MappingLoader_MCP("test", NameSet.Side.UNIVERSAL, mcpDir, cacheDir, null);
+		assertEquals(0, countCompiled());
+		checkSRG(loader.getForwardSRG(), loader.getReverseSRG());
+		assertEquals(1, countCompiled());
+		checkCSV(loader.getForwardCSV(), loader.getReverseCSV());
+		assertEquals(2, countCompiled());
+
+		// a second loader uses the compiled files, also after unloading
+		loader = new MappingLoader_MCP("test", NameSet.Side.UNIVERSAL, mcpDir, cacheDir, null);
+		assertTrue(loader.getForwardSRG() instanceof MappedMapping);
+		checkSRG(loader.getForwardSRG(), loader.getReverseSRG());
+		checkCSV(loader.getForwardCSV(), loader.getReverseCSV());
+		loader.unload();
+		assertTrue(loader.getForwardCSV() instanceof MappedMapping);
+		checkCSV(loader.getForwardCSV(), loader.getReverseCSV());
+		assertEquals(2, countCompiled());
+	}
+
+	@Test
+	public void testCompiledLayers() throws Exception {
+		new MappingLoader_MCP("test", NameSet.Side.UNIVERSAL, mcpDir, cacheDir, null).getForwardSRG();
+
+		// the CSV layer is built from the compiled SRG layer
+		MappingLoader_MCP loader = new MappingLoader_MCP("test", NameSet.Side.UNIVERSAL, mcpDir, cacheDir, null);
+		assertTrue(loader.getForwardCSV() instanceof NameMapping);
+		assertTrue(loader.getForwardSRG() instanceof MappedMapping);
+		checkCSV(loader.getForwardCSV(), loader.getReverseCSV());
+		assertEquals(2, countCompiled());
+	}
+
+	@Test
+	public void testCompiledChanged() throws Exception {
+		new MappingLoader_MCP("test", NameSet.Side.UNIVERSAL, mcpDir, cacheDir, null).getForwardCSV();
+		write("conf/methods.csv", "searge,name,side,desc\n"
+				+ "func_3_c,onAdded,2,\n");
+
+		// a changed CSV file gets its own compiled CSV layer, the SRG layer is still up to date
+		MappingLoader_MCP loader = new MappingLoader_MCP("test", NameSet.Side.UNIVERSAL, mcpDir, cacheDir, null);
+		assertEquals("onAdded", loader.getForwardCSV().getMethod("net/minecraft/src/Block", "func_3_c", "()V"));
+		assertEquals("func_4_d", loader.getForwardCSV().getMethod("net/minecraft/src/Item", "func_4_d", "()V"));
+		assertTrue(loader.getForwardSRG() instanceof MappedMapping);
+		assertEquals(3, countCompiled());
+	}
+
+	@Test
+	public void testCompiledBroken() throws Exception {
+		new MappingLoader_MCP("test", NameSet.Side.UNIVERSAL, mcpDir, cacheDir, null).getForwardSRG();
+		File compiled = cacheDir.listFiles()[0];
+		Files.write(compiled.toPath(), Arrays.copyOf(Files.readAllBytes(compiled.toPath()), 20));
+
+		// the conf files are loaded instead, and compiled again
+		MappingLoader_MCP loader = new MappingLoader_MCP("test", NameSet.Side.UNIVERSAL, mcpDir, cacheDir, null);
+		checkSRG(loader.getForwardSRG(), loader.getReverseSRG());
+		checkCSV(loader.getForwardCSV(), loader.getReverseCSV());
+		assertTrue(compiled.length() > 20);
+	}
+
+	@Test
+	public void testProgress() throws Exception {
+		final List<Integer> values = new ArrayList<Integer>();
+		final int[] max = {-1};
+		IProgressListener progress = new IProgressListener() {
+			@Override
+			public void start(int max, String text) {
+			}
+
+			@Override
+			public void set(int value) {
+				values.add(value);
+			}
+
+			@Override
+			public void setMax(int newMax) {
+				max[0] = newMax;
+			}
+		};
+
+		MappingLoader_MCP loader = new MappingLoader_MCP("test", NameSet.Side.UNIVERSAL, mcpDir, null);
+		loader.load(true, progress);
+
+		// one step for each of the four files, and one for linking them
+		assertEquals(5, max[0]);
+		assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5), values);
+	}
+
+}
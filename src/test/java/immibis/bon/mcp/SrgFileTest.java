@@ -0,0 +1,105 @@
+package immibis.bon.mcp;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SrgFileTest {
+
+	/**
+	 * Records the entries as strings, in the order they are visited.
+	 */
+	private static List<String> read(String text) throws IOException {
+		final List<String> rv = new ArrayList<String>();
+		SrgFile.read(ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), new SrgFile.EntryVisitor() {
+			@Override
+			public void visitClass(String obf, String deobf) {
+				rv.add("CL " + obf + " " + deobf);
+			}
+
+			@Override
+			public void visitField(String obfOwner, String obfName, String deobfOwner, String deobfName) {
+				rv.add("FD " + obfOwner + " " + obfName + " " + deobfOwner + " " + deobfName);
+			}
+
+			@Override
+			public void visitMethod(String obfOwner, String obfName, String obfDesc, String deobfOwner, String deobfName, String deobfDesc) {
+				rv.add("MD " + obfOwner + " " + obfName + " " + obfDesc + " " + deobfOwner + " " + deobfName + " " + deobfDesc);
+			}
+		});
+		return rv;
+	}
+
+	@Test
+	public void testEntries() throws IOException {
+		assertEquals(Arrays.asList(
+				"CL a net/minecraft/src/Block",
+				"FD a b net/minecraft/src/Block field_1_a",
+				"MD a c (La;)V net/minecraft/src/Block func_2_b (Lnet/minecraft/src/Block;)V"),
+			read("PK: . net/minecraft/src\n"
+				+ "CL: a net/minecraft/src/Block\n"
+				+ "FD: a/b net/minecraft/src/Block/field_1_a\n"
+				+ "MD: a/c (La;)V net/minecraft/src/Block/func_2_b (Lnet/minecraft/src/Block;)V\n"));
+	}
+
+	@Test
+	public void testOwnersInPackages() throws IOException {
+		// the name is split off at the last slash
+		assertEquals(Arrays.asList(
+				"FD a/b c net/minecraft/block/Block field_1_a",
+				"MD a/b d ()V net/minecraft/block/Block func_2_b ()V"),
+			read("FD: a/b/c net/minecraft/block/Block/field_1_a\n"
+				+ "MD: a/b/d ()V net/minecraft/block/Block/func_2_b ()V\n"));
+	}
+
+	@Test
+	public void testWhitespaceAndLineEndings() throws IOException {
+		// CRLF, tabs, repeated spaces, empty lines and a last line without a line break
+		assertEquals(Arrays.asList(
+				"CL a b",
+				"FD a x b field_1_a",
+				"MD a y ()I b func_2_b ()I"),
+			read("CL: a  b\r\n"
+				+ "\n"
+				+ "FD:\ta/x\tb/field_1_a \r\n"
+				+ "\r\n"
+				+ "MD: a/y ()I b/func_2_b ()I"));
+	}
+
+	@Test
+	public void testOtherLinesSkipped() throws IOException {
+		assertEquals(Arrays.asList("CL a b"),
+			read("PK: net/minecraft/src net/minecraft/src\n"
+				+ "# comment\n"
+				+ "CL a c\n"
+				+ "CL: a b\n"));
+	}
+
+	@Test
+	public void testNonAsciiNames() throws IOException {
+		assertEquals(Arrays.asList("CL a net/minecraft/src/Blöck"), read("CL: a net/minecraft/src/Blöck\n"));
+	}
+
+	@Test(expected = IOException.class)
+	public void testMissingName() throws IOException {
+		read("CL: a\n");
+	}
+
+	@Test(expected = IOException.class)
+	public void testFieldWithoutOwner() throws IOException {
+		read("FD: a net/minecraft/src/Block/field_1_a\n");
+	}
+
+	@Test(expected = IOException.class)
+	public void testMethodWithoutOwner() throws IOException {
+		read("MD: a/c (La;)V func_2_b (Lnet/minecraft/src/Block;)V\n");
+	}
+
+}